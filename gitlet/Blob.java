@@ -1,20 +1,39 @@
 package gitlet;
 
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 import static gitlet.Utils.*;
 import static gitlet.Main.*;
 
 /**
- * This class contain the String-form data in the file specified
- * by its constructor.
+ * This class refers to the byte content of a file, either a file
+ * in the working directory or a blob already in blobFolder.
+ * The content itself is never held in memory; it is hashed, saved
+ * and written out by streaming it in fixed-size chunks.
+ * Blobs are saved as RawObjects, deflated unless they don't compress.
  *
  * @author Ang Wang
  */
 public class Blob implements Serializable {
 
+    /**
+     * Fixed so that blobs saved by earlier versions,
+     * which are serialized Blob objects, can still be read.
+     */
+    private static final long serialVersionUID = -8420394312674328444L;
+
     /**
      * Directory for storing blobs.
      */
@@ -38,75 +57,474 @@ public class Blob implements Serializable {
         blobFolder = Utils.join(remote, "blobs");
     }
 
+    /**
+     * Longest content, in bytes, that is saved as a delta.
+     * Larger blobs are always saved whole.
+     */
+    static final long DELTA_LIMIT = 1 << 22;
+
+    /**
+     * Longest chain of deltas leading to a whole blob.
+     */
+    static final int MAX_DEPTH = 16;
+
+    /**
+     * Estimated size of a blob read from disk, besides its content.
+     */
+    private static final int OBJECT_WEIGHT = 256;
+
+    /**
+     * Recently read blobs.
+     */
+    private static final ObjectCache<Blob> CACHE =
+            new ObjectCache<>("blob", ObjectCache.CAPACITY);
+
     /**
      * Construct the blob from ./input file.
+     * The file is only hashed if the stat cache can't tell its hash.
      *
      * @param input the file name
      */
     Blob(String input) {
-        File f = join(getCwd(), input);
-        if (!f.exists()) {
-            _content = null;
-        } else {
-            _content = readContentsAsString(f);
+        _hash = StatCache.hash(input);
+        if (_hash != null) {
+            _source = join(getCwd(), input);
         }
     }
 
+    /**
+     * Construct the blob HASH saved as OBJECT.
+     *
+     * @param hash the blob's hash
+     * @param object the object holding its content
+     */
+    private Blob(String hash, RawObject object) {
+        _hash = hash;
+        _object = object;
+    }
+
     /**
      * Return whether the blob is an empty one.
      */
     public boolean empty() {
-        return (_content == null);
+        return (_hash == null);
+    }
+
+    /**
+     * Stream the file's content to OUT, which is left open.
+     *
+     * @param out the stream to write to
+     */
+    public void writeTo(OutputStream out) {
+        if (_chunks != null) {
+            for (Blob chunk : _chunks) {
+                chunk.writeTo(out);
+            }
+        } else if (_content != null || _base != null) {
+            try {
+                out.write(bytes());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } else if (_object != null) {
+            _object.copyTo(out);
+        } else {
+            copyContents(_source, out);
+        }
+    }
+
+    /**
+     * Write the file's content to FILE, creating or
+     * overwriting it as needed.
+     * Content stored uncompressed is transferred by the operating
+     * system, without being copied through the heap.
+     *
+     * @param file the file to write to
+     */
+    public void writeTo(File file) {
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the file's content to OUT, transferring it directly
+     * when it is stored as is.
+     *
+     * @param out the channel to write to
+     */
+    private void writeTo(FileChannel out) throws IOException {
+        if (_chunks != null) {
+            for (Blob chunk : _chunks) {
+                chunk.writeTo(out);
+            }
+        } else if (_object != null && _base == null
+                && _object.transferTo(out)) {
+            return;
+        } else if (_source != null) {
+            try (FileChannel in = FileChannel.open(_source.toPath(),
+                    StandardOpenOption.READ)) {
+                transferContents(in, 0, in.size(), out);
+            }
+        } else {
+            OutputStream str = new BufferedOutputStream(
+                    Channels.newOutputStream(out), BUFFER_SIZE);
+            writeTo(str);
+            str.flush();
+        }
+    }
+
+    /**
+     * Return the file's whole content.
+     */
+    byte[] bytes() {
+        if (_chunks != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeTo(out);
+            return out.toByteArray();
+        } else if (_content != null) {
+            return _content.getBytes(StandardCharsets.UTF_8);
+        } else if (_base != null) {
+            return Delta.apply(_base.bytes(), _delta);
+        } else if (_object != null) {
+            return _object.read();
+        }
+        return readContents(_source);
+    }
+
+    /**
+     * Return the length of the file's content.
+     */
+    long length() {
+        if (_chunks != null) {
+            return _length;
+        } else if (_content != null) {
+            return _content.getBytes(StandardCharsets.UTF_8).length;
+        } else if (_base != null) {
+            return Delta.length(_delta);
+        } else if (_object != null) {
+            return _object.length();
+        }
+        return _source.length();
+    }
+
+    /**
+     * Return the length of the chain of deltas leading from
+     * this blob to a whole one.
+     */
+    int depth() {
+        return _delta == null ? 0 : Delta.depth(_delta);
+    }
+
+    /**
+     * Return whether this blob is saved as a delta.
+     */
+    boolean isDelta() {
+        return _base != null;
+    }
+
+    /**
+     * Return this blob encoded as a delta against BASE, whose own
+     * depth is BASEDEPTH.  Return null if the delta is not worth it:
+     * either blob is too large, the chain would be too long or the
+     * delta isn't less than half the size of the whole blob.
+     *
+     * @param base the blob to rebuild this one from
+     * @param baseDepth the depth BASE is saved at
+     */
+    byte[] encodeDelta(Blob base, int baseDepth) {
+        if (base == null || base._hash.equals(_hash)
+                || baseDepth >= MAX_DEPTH
+                || length() > DELTA_LIMIT || base.length() > DELTA_LIMIT) {
+            return null;
+        }
+        byte[] target = bytes();
+        byte[] delta = RawObject.encode(RawObject.DELTA,
+                Delta.create(base._hash, baseDepth + 1, base.bytes(),
+                        target));
+        if (delta.length * 2 > encodeWhole(target).length) {
+            return null;
+        }
+        return delta;
     }
 
     /**
-     * Return the file's content in String form.
+     * Return the whole blob with content CONTENT encoded as an object.
      */
-    public String content() {
-        return _content;
+    static byte[] encodeWhole(byte[] content) {
+        return RawObject.encode(RawObject.BLOB, content);
     }
 
     /**
      * Save blob to blobFolder.
      * Name : SHA
-     * Content : _content
+     * Content : RawObject of the file's bytes
+     * Large files are saved in chunks, see Chunks.
+     * A blob read from another repository is copied as it is stored,
+     * with its chunks, unless it is a delta whose base this repository
+     * doesn't have.
+     * Saving a blob that is already saved does nothing.
      */
     public void saveBlob() {
-        String s = blobSHA();
-        File folder = join(blobFolder, s.substring(0, 2));
+        saveBlob(null);
+    }
+
+    /**
+     * Save blob to blobFolder, as a delta against the blob BASEHASH,
+     * usually the previous version of the same file, when that is
+     * worth it.
+     *
+     * @param baseHash hash of the base blob, or null
+     */
+    public void saveBlob(String baseHash) {
+        if (contains(_hash)) {
+            return;
+        }
+        File file = objectFile(blobSHA());
+        if (_object != null) {
+            if (_chunks != null) {
+                for (Blob chunk : _chunks) {
+                    if (!contains(chunk._hash)) {
+                        chunk.saveBlob();
+                    }
+                }
+                _object.copyRawTo(file);
+            } else if (_base == null || contains(_base._hash)) {
+                _object.copyRawTo(file);
+            } else {
+                RawObject.writeFile(file, encodeWhole(bytes()));
+            }
+            return;
+        }
+        if (_source != null && Chunks.chunked(_source.length())) {
+            Chunks.save(_source, file);
+            return;
+        }
+        if (baseHash != null) {
+            Blob base = readBlob(baseHash);
+            byte[] delta = encodeDelta(base, base == null ? 0 : base.depth());
+            if (delta != null) {
+                RawObject.writeFile(file, delta);
+                return;
+            }
+        }
+        if (_content != null) {
+            RawObject.writeFile(file, encodeWhole(bytes()));
+        } else {
+            RawObject.write(file, RawObject.BLOB, _source);
+        }
+    }
+
+    /**
+     * Save CONTENT, whose hash is HASH, as a whole blob
+     * unless it is already saved.
+     *
+     * @param hash the content's hash
+     * @param content the content
+     */
+    static void saveWhole(String hash, byte[] content) {
+        saveObject(hash, RawObject.BLOB, content);
+    }
+
+    /**
+     * Save CONTENT, whose hash is HASH, as an object of type TYPE
+     * unless it is already saved.
+     *
+     * @param hash the content's hash
+     * @param type the object's type
+     * @param content the content
+     */
+    static void saveObject(String hash, byte type, byte[] content) {
+        if (!contains(hash)) {
+            RawObject.write(objectFile(hash), type, content);
+        }
+    }
+
+    /**
+     * Return the file in blobFolder for the blob HASH,
+     * creating its folder if needed.
+     *
+     * @param hash blob's hash
+     */
+    private static File objectFile(String hash) {
+        File folder = join(blobFolder, hash.substring(0, 2));
         if (!folder.exists()) {
             folder.mkdir();
         }
-        writeObject(join(folder, s.substring(2)), this);
+        return join(folder, hash.substring(2));
+    }
+
+    /**
+     * Return whether the blob HASH is in blobFolder or in a pack.
+     *
+     * @param hash blob's hash
+     */
+    public static boolean contains(String hash) {
+        return join(blobFolder, hash.substring(0, 2), hash.substring(2))
+                .exists() || Pack.contains(Pack.BLOB, hash);
     }
 
     /**
-     * Get the blob with hash in blobFolder.
+     * Get the blob with hash in blobFolder or in a pack,
+     * through the cache of recently read blobs.
      * If doesn't exist, return null.
+     * The base of a delta and the chunks of a large file are looked
+     * up at once, so that the blob can still be read after switching
+     * to another repository.
      *
      * @param hash blob's hash
      */
     public static Blob readBlob(String hash) {
+        Blob blob = CACHE.get(hash);
+        if (blob == null) {
+            blob = loadBlob(hash);
+            if (blob != null) {
+                CACHE.put(hash, blob, blob.weight());
+            }
+        }
+        return blob;
+    }
+
+    /**
+     * Return the object HASH as stored in blobFolder or a pack, or
+     * null if there is none.
+     *
+     * @param hash blob's hash
+     */
+    static RawObject findObject(String hash) {
         File file = join(blobFolder, hash.substring(0, 2), hash.substring(2));
         if (file.exists()) {
-            return ((Blob) readObject(file, Blob.class));
+            return new RawObject(file);
+        }
+        return Pack.find(Pack.BLOB, hash);
+    }
+
+    /**
+     * Read the blob with hash from blobFolder or a pack,
+     * bypassing the cache. Return null if it doesn't exist.
+     *
+     * @param hash blob's hash
+     */
+    private static Blob loadBlob(String hash) {
+        RawObject object = findObject(hash);
+        if (object == null) {
+            return null;
         }
-        return null;
+        if (object.serialized()) {
+            Blob blob = deserialize(object.read(), Blob.class);
+            blob._hash = hash;
+            return blob;
+        }
+        Blob blob = new Blob(hash, object);
+        if (object.type() == RawObject.CHUNKED) {
+            byte[] manifest = object.read();
+            blob._length = Chunks.length(manifest);
+            blob._chunks = new ArrayList<>();
+            for (String id : Chunks.ids(manifest)) {
+                Blob chunk = readBlob(id);
+                if (chunk == null) {
+                    throw error("Missing chunk of blob %s.", hash);
+                }
+                blob._chunks.add(chunk);
+            }
+        } else if (object.type() == RawObject.DELTA) {
+            blob._delta = object.read();
+            blob._base = readBlob(Delta.base(blob._delta));
+            if (blob._base == null) {
+                throw error("Missing base of blob %s.", hash);
+            }
+        }
+        return blob;
     }
 
 
+    /**
+     * Return an estimate of the memory this blob takes, in bytes.
+     */
+    private long weight() {
+        long w = OBJECT_WEIGHT;
+        if (_content != null) {
+            w += 2L * _content.length();
+        }
+        if (_delta != null) {
+            w += _delta.length;
+        }
+        if (_chunks != null) {
+            w += (long) OBJECT_WEIGHT * _chunks.size();
+        }
+        return w;
+    }
+
+    /**
+     * Return the cache of recently read blobs.
+     */
+    static ObjectCache<Blob> getCache() {
+        return CACHE;
+    }
+
     /**
      * SHA.
      *
      * @return This blob's hash.
      */
     public String blobSHA() {
-        return Utils.sha1(_content);
+        return _hash;
+    }
+
+    @Override
+    public boolean equals(Object anObject) {
+        return anObject instanceof Blob
+                && _hash != null && _hash.equals(((Blob) anObject)._hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return _hash == null ? 0 : _hash.hashCode();
     }
 
     /**
      * String form of the file content.
+     * Only set for blobs saved by earlier versions.
      */
     private String _content;
 
+    /**
+     * The working file holding this blob's content.
+     */
+    private transient File _source;
+
+    /**
+     * The saved object holding this blob's content.
+     */
+    private transient RawObject _object;
+
+    /**
+     * The blob this one is a delta against. NULL if saved whole.
+     */
+    private transient Blob _base;
+
+    /**
+     * The delta rebuilding this blob from _base.
+     */
+    private transient byte[] _delta;
+
+    /**
+     * The chunks of a large file, in order. NULL if not chunked.
+     */
+    private transient List<Blob> _chunks;
+
+    /**
+     * Length of a chunked file.
+     */
+    private transient long _length;
+
+    /**
+     * SHA-1 of the content. NULL when the file doesn't exist.
+     */
+    private transient String _hash;
+
 }
@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Content-defined chunking of large files.
+ * <p>
+ * A large file is cut where a rolling (gear) hash of its last bytes
+ * hits a fixed pattern, so an edit only changes the chunks around it.
+ * Each chunk is saved once as an ordinary blob, and the file's blob
+ * becomes a manifest of its chunks:
+ * LENGTH(8 bytes) COUNT(4 bytes), then COUNT times ID(20 bytes)
+ * SIZE(4 bytes).
+ * <p>
+ * Chunking changes how new large files are stored, so it is off
+ * unless run with -Dgitlet.chunking=true; files of at least
+ * THRESHOLD bytes, set with -Dgitlet.chunkThreshold, are then
+ * chunked.  Chunked blobs are read whether or not it is on.
+ *
+ * @author Ang Wang
+ */
+class Chunks {
+
+    /**
+     * Whether new large files are saved in chunks.
+     */
+    static final boolean ENABLED = Boolean.getBoolean("gitlet.chunking");
+
+    /**
+     * Files at least this long are saved in chunks when ENABLED.
+     * 0 for never.
+     */
+    static final long THRESHOLD = Long.getLong("gitlet.chunkThreshold",
+            1L << 23);
+
+    /**
+     * Shortest chunk, except for the last one.
+     */
+    private static final int MIN_SIZE = 1 << 14;
+
+    /**
+     * Longest chunk.
+     */
+    private static final int MAX_SIZE = 1 << 18;
+
+    /**
+     * A chunk ends where the hash has these bits clear, which
+     * gives chunks of about 64 KB on average.  The top bits depend
+     * on the last 64 bytes read, the bottom ones on fewer.
+     */
+    private static final long MASK = ((1L << 16) - 1) << 48;
+
+    /**
+     * Size of a chunk's entry in a manifest.
+     */
+    private static final int ENTRY_SIZE = UID_LENGTH / 2 + 4;
+
+    /**
+     * Random value of each byte for the gear hash.
+     * Fixed, so that the same content is always cut the same way.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x676974_6c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * Return whether a file of LENGTH bytes is saved in chunks.
+     */
+    static boolean chunked(long length) {
+        return ENABLED && THRESHOLD > 0 && length >= THRESHOLD;
+    }
+
+    /**
+     * Save SOURCE in chunks, streaming it, and write its manifest
+     * to DEST.  Chunks already saved are not written again.  The
+     * manifest describes the bytes actually read, even if SOURCE
+     * changes meanwhile.
+     *
+     * @param source the file to save
+     * @param dest   the object file for the manifest
+     */
+    static void save(File source, File dest) {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        long length = 0;
+        int count = 0;
+        try (FileChannel in = FileChannel.open(source.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] chunk = new byte[MAX_SIZE];
+            int n = 0;
+            long h = 0;
+            while (in.read(buf) != -1) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    byte b = buf.get();
+                    chunk[n] = b;
+                    n += 1;
+                    h = (h << 1) + GEAR[b & 0xff];
+                    if ((n >= MIN_SIZE && (h & MASK) == 0) || n == MAX_SIZE) {
+                        addChunk(entries, chunk, n);
+                        length += n;
+                        count += 1;
+                        n = 0;
+                        h = 0;
+                    }
+                }
+                buf.clear();
+            }
+            if (n > 0) {
+                addChunk(entries, chunk, n);
+                length += n;
+                count += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ByteBuffer manifest = ByteBuffer.allocate(12 + entries.size());
+        manifest.putLong(length).putInt(count).put(entries.toByteArray());
+        RawObject.write(dest, RawObject.CHUNKED, manifest.array());
+    }
+
+    /**
+     * Save the first N bytes of CHUNK as a blob if not saved yet,
+     * and add its entry to ENTRIES.
+     */
+    private static void addChunk(ByteArrayOutputStream entries,
+                                 byte[] chunk, int n) {
+        byte[] content = Arrays.copyOf(chunk, n);
+        String id = sha1(content);
+        Blob.saveWhole(id, content);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        for (int k = 0; k < UID_LENGTH; k += 2) {
+            entry.put((byte) Integer.parseInt(id.substring(k, k + 2), 16));
+        }
+        entry.putInt(n);
+        entries.write(entry.array(), 0, ENTRY_SIZE);
+    }
+
+    /**
+     * Return the ids of the chunks in MANIFEST, in order.
+     */
+    static List<String> ids(byte[] manifest) {
+        ByteBuffer buf = ByteBuffer.wrap(manifest);
+        int count = buf.getInt(8);
+        List<String> res = new ArrayList<>(count);
+        byte[] id = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < count; i += 1) {
+            buf.position(12 + i * ENTRY_SIZE);
+            buf.get(id);
+            res.add(toHex(id));
+        }
+        return res;
+    }
+
+    /**
+     * Return the length of the file MANIFEST describes.
+     */
+    static long length(byte[] manifest) {
+        return ByteBuffer.wrap(manifest).getLong(0);
+    }
+}
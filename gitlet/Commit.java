@@ -1,15 +1,25 @@
 package gitlet;
 
 import java.io.File;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Set;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.List;
 import java.util.Date;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
 
 import static gitlet.Utils.*;
 import static gitlet.Main.*;
@@ -20,11 +30,37 @@ import static gitlet.Main.*;
  * A commit consist of a log message, timestamp,
  * a mapping of file names to blob references,
  * a parent reference, and (for merges) a second parent reference.
+ * <p>
+ * Commits are saved as objects of type COMMIT:
+ * TREE(20 bytes) TIME(8 bytes) OFFSET(2 bytes) NPARENTS(1 byte),
+ * NPARENTS times PARENT(20 bytes), then the log message in UTF-8.
+ * TIME is in milliseconds since the epoch and OFFSET is the time
+ * zone's offset from UTC in minutes.  Commits saved by earlier
+ * versions as serialized Java objects are still read, and keep
+ * their hashes; only the commits made from then on use this format.
  *
  * @author Ang Wang
  */
 
 public class Commit implements Serializable {
+    /**
+     * Fixed so that commits keep their serialized form, and so their
+     * hash, and earlier commits can still be read.
+     */
+    private static final long serialVersionUID = 6921868542988236491L;
+
+    /**
+     * Estimated size of a commit read from disk, besides its
+     * log message and mapping.
+     */
+    private static final int OBJECT_WEIGHT = 256;
+
+    /**
+     * Recently read commits.
+     */
+    private static final ObjectCache<Commit> CACHE =
+            new ObjectCache<>("commit", ObjectCache.CAPACITY);
+
     /**
      * Directory for storing commits.
      * Name : commit's SHA
@@ -101,6 +137,16 @@ public class Commit implements Serializable {
         curBranchFile = join(remote, "CURBRANCH");
     }
 
+    /**
+     * Size of the COMMIT format before the parents and log message.
+     */
+    private static final int HEADER_SIZE = UID_LENGTH / 2 + 8 + 2 + 1;
+
+    /**
+     * Milliseconds in a minute.
+     */
+    private static final int MINUTE = 60 * 1000;
+
     /**
      * Format for displaying date in log.
      */
@@ -113,28 +159,45 @@ public class Commit implements Serializable {
     Commit() {
         _firstParentHash = null;
         _secondParentHash = null;
-        _allMap = null;
         _log = "initial commit";
-        _allMap = new HashMap<>();
-        _date = DATE.format(new Date(0));
+        _tree = Tree.update(null, new HashMap<>());
+        _time = 0;
+        _offset = TimeZone.getDefault().getOffset(_time) / MINUTE;
         curBranch = "master";
         writeContents(curBranchFile, curBranch);
     }
 
     /**
      * General constructor for inheritance from one ANCESTOR.
-     * Simply the copy of ANCESTOR.
+     * Simply the copy of ANCESTOR, sharing its tree until
+     * files are put or removed.
      *
      * @param log      log message.
      * @param ancestor its ancestor.
      */
     Commit(Commit ancestor, String log) {
         _firstParentHash = ancestor.commitSHA();
-        _firstParent = ancestor;
         _secondParentHash = null;
         _log = log;
-        _date = DATE.format(new Date());
-        _allMap = new HashMap<>(ancestor._allMap);
+        _time = System.currentTimeMillis();
+        _offset = TimeZone.getDefault().getOffset(_time) / MINUTE;
+        _tree = ancestor.tree();
+        _changes = new TreeMap<>();
+    }
+
+    /**
+     * A commit read from disk, with tree TREE, parents PARENTS,
+     * made at TIME in the time zone OFFSET minutes from UTC with
+     * log message LOG.
+     */
+    private Commit(String tree, List<String> parents, long time,
+                   int offset, String log) {
+        _tree = tree;
+        _firstParentHash = parents.size() > 0 ? parents.get(0) : null;
+        _secondParentHash = parents.size() > 1 ? parents.get(1) : null;
+        _time = time;
+        _offset = offset;
+        _log = log;
     }
 
     /**
@@ -143,53 +206,227 @@ public class Commit implements Serializable {
      * Suppose that there wouldn't be any collision.
      */
     public void saveCommit() {
-        _hashSHA = sha1(serialize(this));
-        byte[] toWrite = serialize(this);
-        File folder = join(commitFolder, _hashSHA.substring(0, 2));
-        if (!folder.exists()) {
-            folder.mkdir();
+        if (_changes != null) {
+            if (!_changes.isEmpty()) {
+                _tree = Tree.update(_tree, _changes);
+            }
+            _changes = null;
         }
-        writeContents(join(folder, _hashSHA.substring(2)), toWrite);
+        byte[] content = encode();
+        _hashSHA = sha1("commit", content);
+        RawObject.write(objectFile(_hashSHA), RawObject.COMMIT, content);
     }
 
     /**
      * Save COMMIT to current commits folder
      * without setting SHA.
+     * A commit read from disk is copied as it is stored.
+     * Do nothing if that commit is already saved.
      *
      * @param c the Commit to save.
      * */
     public static void saveCommit(Commit c) {
-        File folder = join(commitFolder, c._hashSHA.substring(0, 2));
+        if (contains(c._hashSHA)) {
+            return;
+        }
+        File file = objectFile(c._hashSHA);
+        if (c._object != null) {
+            c._object.copyRawTo(file);
+        } else {
+            RawObject.write(file, RawObject.COMMIT, c.encode());
+        }
+    }
+
+    /**
+     * Return the file in commitFolder for the commit HASH,
+     * creating its folder if needed.
+     *
+     * @param hash commit's hash.
+     */
+    private static File objectFile(String hash) {
+        File folder = join(commitFolder, hash.substring(0, 2));
         if (!folder.exists()) {
             folder.mkdir();
         }
-        writeObject(join(folder, c._hashSHA.substring(2)), c);
+        return join(folder, hash.substring(2));
+    }
+
+    /**
+     * Return this commit's content in the COMMIT format.
+     */
+    private byte[] encode() {
+        List<String> parents = parentHashes();
+        byte[] log = _log.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE
+                + parents.size() * UID_LENGTH / 2 + log.length);
+        putId(buf, tree());
+        buf.putLong(time()).putShort((short) _offset);
+        buf.put((byte) parents.size());
+        for (String p : parents) {
+            putId(buf, p);
+        }
+        buf.put(log);
+        return buf.array();
+    }
+
+    /**
+     * Return the commit whose content in the COMMIT format is CONTENT.
+     */
+    private static Commit decode(byte[] content) {
+        ByteBuffer buf = ByteBuffer.wrap(content);
+        String tree = getId(buf);
+        long time = buf.getLong();
+        int offset = buf.getShort();
+        int n = buf.get();
+        List<String> parents = new ArrayList<>(n);
+        for (int i = 0; i < n; i += 1) {
+            parents.add(getId(buf));
+        }
+        String log = new String(content, buf.position(), buf.remaining(),
+                StandardCharsets.UTF_8);
+        return new Commit(tree, parents, time, offset, log);
+    }
+
+    /**
+     * Put the hexadecimal ID in BUF as bytes.
+     */
+    private static void putId(ByteBuffer buf, String id) {
+        for (int k = 0; k < UID_LENGTH; k += 2) {
+            buf.put((byte) Integer.parseInt(id.substring(k, k + 2), 16));
+        }
     }
 
+    /**
+     * Return the id read from BUF, in hexadecimal.
+     */
+    private static String getId(ByteBuffer buf) {
+        byte[] id = new byte[UID_LENGTH / 2];
+        buf.get(id);
+        return toHex(id);
+    }
 
     /**
-     * Read a commit from commitFolder given its hash.
+     * Read a commit from commitFolder or a pack given its hash,
+     * through the cache of recently read commits.
      * Handle the situation that given hash.length < 40.
      * Return null if doesn't exist that commit.
      *
-     * @param hash commit's hash.
+     * @param hash commit's hash, or a unique prefix of it.
      */
     public static Commit readCommit(String hash) {
-        String folder = hash.substring(0, 2);
-        List<String> allFolders = foldernamesIn(commitFolder);
-        if (!allFolders.contains(folder)) {
+        if (hash.length() != UID_LENGTH) {
+            hash = resolve(hash);
+            if (hash == null) {
+                return null;
+            }
+        }
+        Commit c = CACHE.get(hash);
+        if (c != null) {
+            return c;
+        }
+        c = loadCommit(hash);
+        if (c != null) {
+            CACHE.put(c._hashSHA, c, c.weight());
+        }
+        return c;
+    }
+
+    /**
+     * Return the full hash of the commit whose hash starts with
+     * PREFIX, or null if there is none.
+     * Commits are found by binary search in the commit graph's sorted
+     * id table and in pack indices, without listing commitFolder.
+     *
+     * @param prefix an abbreviated commit hash.
+     * @throws GitletException if several commits start with PREFIX.
+     */
+    public static String resolve(String prefix) {
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH
+                || !prefix.matches("[0-9a-f]+")) {
             return null;
+        }
+        TreeSet<String> res = new TreeSet<>();
+        CommitGraph.complete(prefix, 2, res);
+        Pack.complete(Pack.COMMIT, prefix, 2, res);
+        if (res.size() > 1) {
+            throw error("Commit id %s is ambiguous.", prefix);
+        }
+        return res.isEmpty() ? null : res.first();
+    }
+
+    /**
+     * Read the commit HASH from commitFolder or a pack, bypassing
+     * the cache.
+     * Return null if doesn't exist that commit.
+     *
+     * @param hash commit's full hash.
+     */
+    private static Commit loadCommit(String hash) {
+        File file = join(commitFolder, hash.substring(0, 2),
+                hash.substring(2));
+        RawObject object = file.exists() ? new RawObject(file)
+                : Pack.find(Pack.COMMIT, hash);
+        if (object == null) {
+            return null;
+        }
+        Commit c;
+        if (object.serialized()) {
+            c = deserialize(object.read(), Commit.class);
         } else {
-            List<String> allCommits
-                    = plainFilenamesIn(join(commitFolder, folder));
-            for (String s : allCommits) {
-                if (s.indexOf(hash.substring(2)) != -1) {
-                    return readObject(join(commitFolder, folder, s),
-                            Commit.class);
+            c = decode(object.read());
+        }
+        c._hashSHA = hash;
+        c._object = object;
+        return c;
+    }
+
+    /**
+     * Return an estimate of the memory this commit takes, in bytes.
+     */
+    private long weight() {
+        long w = OBJECT_WEIGHT + 2L * _log.length();
+        Map<String, String> files = _files != null ? _files : _allMap;
+        if (files == null) {
+            return w;
+        }
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            w += OBJECT_WEIGHT / 2
+                    + 2L * (e.getKey().length() + e.getValue().length());
+        }
+        return w;
+    }
+
+    /**
+     * Return the cache of recently read commits.
+     */
+    static ObjectCache<Commit> getCache() {
+        return CACHE;
+    }
+
+    /**
+     * Return whether the commit HASH is in commitFolder or in a pack.
+     *
+     * @param hash commit's full hash.
+     */
+    public static boolean contains(String hash) {
+        return join(commitFolder, hash.substring(0, 2), hash.substring(2))
+                .exists() || Pack.contains(Pack.COMMIT, hash);
+    }
+
+    /**
+     * Return the hashes of all commits, loose or packed.
+     */
+    public static List<String> commitIds() {
+        List<String> res = new ArrayList<>();
+        for (String folder : foldernamesIn(commitFolder)) {
+            for (String s : plainFilenamesIn(join(commitFolder, folder))) {
+                if (!s.endsWith(RawObject.TMP_SUFFIX)) {
+                    res.add(folder + s);
                 }
             }
         }
-        return null;
+        res.addAll(Pack.ids(Pack.COMMIT));
+        return res;
     }
 
     /**
@@ -210,31 +447,58 @@ public class Commit implements Serializable {
      * commit e881c9575d180a215d1a636545b8fd9abfb1d2bb
      * Date: Wed Dec 31 16:00:00 1969 -0800
      * initial commit
+     *
+     * @param out the writer to print to.
      */
-    public void printLog() {
-        System.out.println("===");
-        System.out.println(String.format("commit %s", commitSHA()));
-        if (_secondParentHash != null) {
-            System.out.println(String.format("Merge: %s %s",
-                    _firstParentHash.substring(0, 7),
-                    _secondParentHash.substring(0, 7)));
+    public void printLog(PrintWriter out) {
+        printLog(out, commitSHA(), parentHashes(), date(), _log);
+    }
+
+    /**
+     * Print this commit's log on one line: its abbreviated hash
+     * and the first line of its message.
+     * e.g:
+     * e881c95 initial commit
+     *
+     * @param out the writer to print to.
+     */
+    public void printOneline(PrintWriter out) {
+        int end = _log.indexOf('\n');
+        out.println(commitSHA().substring(0, 7) + " "
+                + (end == -1 ? _log : _log.substring(0, end)));
+    }
+
+    /**
+     * Print the log of the commit ID, with parents PARENTS, made at
+     * DATE with message LOG, to OUT.
+     *
+     * @param out     the writer to print to.
+     * @param id      the commit's hash.
+     * @param parents its parents' hashes, first parent first.
+     * @param date    its date, as shown in log.
+     * @param log     its log message.
+     */
+    static void printLog(PrintWriter out, String id, List<String> parents,
+                         String date, String log) {
+        out.println("===");
+        out.println("commit " + id);
+        if (parents.size() > 1) {
+            out.println("Merge: " + parents.get(0).substring(0, 7) + " "
+                    + parents.get(1).substring(0, 7));
         }
-        System.out.println(String.format("Date: %s", _date));
-        System.out.println(_log);
-        System.out.println();
+        out.println("Date: " + date);
+        out.println(log);
+        out.println();
     }
 
     /**
-     * Return its first parent and set
-     * _firstParent.
+     * Return its first parent.
+     * It is not kept in this commit, so that walking a long history
+     * only holds the commits the cache has room for.
      */
     public Commit getFirstParent() {
         if (_firstParentHash != null) {
-            File file = join(commitFolder,
-                    _firstParentHash.substring(0, 2),
-                    _firstParentHash.substring(2));
-            _firstParent = readObject(file, Commit.class);
-            return _firstParent;
+            return readCommit(_firstParentHash);
         }
         return null;
     }
@@ -289,9 +553,7 @@ public class Commit implements Serializable {
      */
     public static void readHEAD(boolean branch) {
         String hash = readContentsAsString(headFile);
-        File commitFile = join(commitFolder, hash.substring(0, 2),
-                hash.substring(2));
-        head = readObject(commitFile, Commit.class);
+        head = readCommit(hash);
         curBranch = readContentsAsString(curBranchFile);
         if (branch) {
             List<String> listOfBranches = plainFilenamesIn(branchFolder);
@@ -320,58 +582,46 @@ public class Commit implements Serializable {
      * BRANCH exists.
      * CUR and BRANCH are distinct branch.
      * <p>
-     * Strategy:
-     * First get all ancestors of branch and cur.
-     * Second find common ancestors.
-     * Last make use of counting map to determine SP.
+     * When criss-cross merges leave several best merge bases,
+     * the newest one is the SP.
      *
      * @return Split Point
      */
     public static Commit findSP(Commit cur, Commit branch) {
-        HashSet<String> curParents = new HashSet<>();
-        HashSet<String> branchParents = new HashSet<>();
-        HashMap<String, Integer> curSHAToNum = new HashMap<>();
-        HashMap<String, Integer> branchSHAToNum = new HashMap<>();
-        cur.ancestors(curParents, curSHAToNum, 0);
-        branch.ancestors(branchParents, branchSHAToNum, 0);
-        curParents.retainAll(branchParents);
-        int min = Integer.MAX_VALUE;
-        String res = null;
-        for (String s : curParents) {
-            if (curSHAToNum.get(s) < min) {
-                min = curSHAToNum.get(s);
-                res = s;
-            }
-        }
-        return readCommit(res);
+        return mergeBases(cur, branch).get(0);
     }
 
     /**
-     * Put all this commit's ancestors and itself in
-     * parents.
-     * And set NUMBERS mapping form its hash to its #
-     * given by COUNT.
-     * For the ancestor which could be accessed in two different
-     * path, its count is unpredicted in this implementation.(12/4/2019)
+     * Return all best merge bases of A and B, newest first:
+     * their common ancestors that are not ancestors of another
+     * common ancestor.
      *
-     * @param parents  The set contains all its parents.
-     * @param hashToNum Map from commit SHA to #.
-     * @param count    The count of recursive calls.
-     */
-    public void ancestors(Set<String> parents,
-                          Map<String, Integer> hashToNum, int count) {
-        parents.add(this.commitSHA());
-        if (hashToNum != null) {
-            hashToNum.put(commitSHA(), count);
-        }
-        if (_firstParentHash != null) {
-            readCommit(_firstParentHash).ancestors(parents,
-                    hashToNum, count + 1);
+     * @param a one commit
+     * @param b the other commit
+     */
+    public static List<Commit> mergeBases(Commit a, Commit b) {
+        List<Commit> res = new ArrayList<>();
+        for (int i : CommitGraph.mergeBases(
+                CommitGraph.index(a.commitSHA()),
+                CommitGraph.index(b.commitSHA()))) {
+            res.add(readCommit(CommitGraph.id(i)));
         }
-        if (_secondParentHash != null) {
-            readCommit(_secondParentHash).ancestors(parents,
-                    hashToNum, count + 1);
+        return res;
+    }
+
+    /**
+     * Return the hashes of this commit and all its ancestors,
+     * found through the commit graph without reading any commit.
+     */
+    public List<String> ancestors() {
+        BitSet parents = CommitGraph.ancestors(
+                CommitGraph.index(commitSHA()), null);
+        List<String> res = new ArrayList<>(parents.cardinality());
+        for (int i = parents.nextSetBit(0); i >= 0;
+             i = parents.nextSetBit(i + 1)) {
+            res.add(CommitGraph.id(i));
         }
+        return res;
     }
 
     /**
@@ -380,12 +630,8 @@ public class Commit implements Serializable {
      * @param set the set contains all commits.
      * */
     public void ancestors(Set<Commit> set) {
-        set.add(this);
-        if (_firstParentHash != null) {
-            readCommit(_firstParentHash).ancestors(set);
-        }
-        if (_secondParentHash != null) {
-            readCommit(_secondParentHash).ancestors(set);
+        for (String id : ancestors()) {
+            set.add(readCommit(id));
         }
     }
 
@@ -446,9 +692,49 @@ public class Commit implements Serializable {
 
     /**
      * Local date log.
+     * Only commits made before the COMMIT format have it;
+     * later ones are NULL.
      */
     private String _date;
 
+    /**
+     * Time this commit was made, in milliseconds since the epoch.
+     */
+    private transient long _time;
+
+    /**
+     * Offset from UTC of the time zone it was made in, in minutes.
+     */
+    private transient int _offset;
+
+    /**
+     * Return the time this commit was made, in milliseconds
+     * since the epoch.
+     */
+    public long time() {
+        if (_date == null) {
+            return _time;
+        }
+        try {
+            return DATE.parse(_date).getTime();
+        } catch (ParseException excp) {
+            throw error("Commit %s has a malformed date.", _hashSHA);
+        }
+    }
+
+    /**
+     * Return the date this commit was made, as shown in log,
+     * in the time zone it was made in.
+     */
+    public String date() {
+        if (_date != null) {
+            return _date;
+        }
+        SimpleDateFormat format = (SimpleDateFormat) DATE.clone();
+        format.setTimeZone(new SimpleTimeZone(_offset * MINUTE, ""));
+        return format.format(new Date(_time));
+    }
+
     /**
      * SHA hash for its parent. NULL for initial commit.
      */
@@ -473,6 +759,20 @@ public class Commit implements Serializable {
         return _secondParentHash.equals(parent);
     }
 
+    /**
+     * Return the hashes of its parents, first parent first.
+     */
+    public List<String> parentHashes() {
+        List<String> res = new ArrayList<>(2);
+        if (_firstParentHash != null) {
+            res.add(_firstParentHash);
+        }
+        if (_secondParentHash != null) {
+            res.add(_secondParentHash);
+        }
+        return res;
+    }
+
     /**
      * Set secondParentHash.
      *
@@ -485,14 +785,141 @@ public class Commit implements Serializable {
     /**
      * Store all map this commit contains.
      * Maps from file name to its blob.
+     * Only commits made before trees have it; later ones are NULL.
      */
     private HashMap<String, String> _allMap;
 
     /**
-     * Return the mapping in this commit.
+     * Hash of the tree of tracked files.
+     * NULL for commits made before trees.
+     */
+    private String _tree;
+
+    /**
+     * Mapping from file name to blob, read from _tree when needed.
+     */
+    private transient HashMap<String, String> _files;
+
+    /**
+     * Files put (to their blobs) or removed (to NULL) since this
+     * commit was created, applied to _tree when it is saved.
+     * NULL for commits read from disk or already saved.
+     */
+    private transient TreeMap<String, String> _changes;
+
+    /**
+     * Return the mapping in this commit, which callers should not
+     * change.  It is read from the tree on first use, so that
+     * commits only used for their log message, date or parents
+     * never read it.
      */
     public HashMap<String, String> allMap() {
-        return _allMap;
+        if (_files == null) {
+            if (_tree == null) {
+                _files = _allMap;
+            } else {
+                _files = Tree.flatten(_tree);
+                if (_object != null) {
+                    CACHE.put(_hashSHA, this, weight());
+                }
+                if (_changes == null) {
+                    return _files;
+                }
+                for (Map.Entry<String, String> e : _changes.entrySet()) {
+                    if (e.getValue() == null) {
+                        _files.remove(e.getKey());
+                    } else {
+                        _files.put(e.getKey(), e.getValue());
+                    }
+                }
+            }
+        }
+        return _files;
+    }
+
+    /**
+     * Return the hash of the blob of FILENAME in this commit,
+     * or null if it isn't tracked.  Unless the mapping is already
+     * read, only the trees on the file's path are read.
+     *
+     * @param fileName the file's name.
+     */
+    public String blobOf(String fileName) {
+        if (_files != null) {
+            return _files.get(fileName);
+        } else if (_tree == null) {
+            return _allMap.get(fileName);
+        } else if (_changes != null && _changes.containsKey(fileName)) {
+            return _changes.get(fileName);
+        }
+        return Tree.get(_tree, fileName);
+    }
+
+    /**
+     * Return whether FILENAME is tracked in this commit.
+     *
+     * @param fileName the file's name.
+     */
+    public boolean tracks(String fileName) {
+        return blobOf(fileName) != null;
+    }
+
+    /**
+     * Track FILENAME as the blob BLOBHASH in this unsaved commit.
+     *
+     * @param fileName the file's name.
+     * @param blobHash its blob's hash.
+     */
+    public void put(String fileName, String blobHash) {
+        _changes.put(fileName, blobHash);
+        if (_files != null) {
+            _files.put(fileName, blobHash);
+        }
+    }
+
+    /**
+     * Stop tracking FILENAME in this unsaved commit.
+     *
+     * @param fileName the file's name.
+     */
+    public void remove(String fileName) {
+        _changes.put(fileName, null);
+        if (_files != null) {
+            _files.remove(fileName);
+        }
+    }
+
+    /**
+     * Return the hash of the tree of tracked files.  For commits
+     * made before trees, the tree is built and saved.
+     */
+    String tree() {
+        return _tree != null ? _tree : Tree.update(null, _allMap);
+    }
+
+    /**
+     * Return the files whose blobs differ between this commit and
+     * OTHER, mapped to {blob here, blob in OTHER}, where null stands
+     * for a missing file.  Directories that did not change are
+     * skipped.
+     *
+     * @param other the commit to compare with.
+     */
+    public TreeMap<String, String[]> diff(Commit other) {
+        if (_tree != null && other._tree != null) {
+            return Tree.diff(_tree, other._tree);
+        }
+        TreeMap<String, String[]> res = new TreeMap<>();
+        Set<String> names = new HashSet<>(allMap().keySet());
+        names.addAll(other.allMap().keySet());
+        for (String name : names) {
+            String x = allMap().get(name);
+            String y = other.allMap().get(name);
+            if (x == null || !x.equals(y)) {
+                res.put(name, new String[] {x, y});
+            }
+        }
+        return res;
     }
 
     /**
@@ -501,15 +928,22 @@ public class Commit implements Serializable {
      * @param set the set contain blobs.
      * */
     public void addBlobs(Set<Blob> set) {
-        for (String s : _allMap.values()) {
+        for (String s : allMap().values()) {
             set.add(Blob.readBlob(s));
         }
     }
 
     /**
-     * Create it when needed.
+     * Put the trees holding its files in TREES, as they are stored,
+     * by hash.  Commits made before trees have none.
+     *
+     * @param trees stored trees found so far
      */
-    private transient Commit _firstParent, _secondParent;
+    public void addTrees(Map<String, RawObject> trees) {
+        if (_tree != null) {
+            Tree.objects(_tree, trees);
+        }
+    }
 
     /**
      * Log message.
@@ -527,4 +961,10 @@ public class Commit implements Serializable {
      * Hash.
      */
     private String _hashSHA;
+
+    /**
+     * The object this commit was read from. NULL if it was made
+     * by this command.
+     */
+    private transient RawObject _object;
 }
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+import static gitlet.Main.*;
+
+/**
+ * A catalog of all commits, with what global-log shows of them,
+ * so that global-log reads one file instead of every commit.
+ * <p>
+ * File: "CTLG" VERSION END(8 bytes), then one record per commit, in
+ * the order they were saved:
+ * ID(20 bytes) NPARENTS(1 byte) NPARENTS times PARENT(20 bytes)
+ * DATE(2-byte length, then UTF-8) LOG(4-byte length, then UTF-8).
+ * Records are only ever appended, and END, the offset just after the
+ * last complete one, is updated once a record is written.  Anything
+ * after END, such as a record cut short by a crash, is never read
+ * and is cut off before the next record is written.  The catalog is
+ * built from all commits when missing or of an older version.
+ *
+ * @author Ang Wang
+ */
+class CommitCatalog {
+
+    /**
+     * Magic number opening the file, "CTLG".
+     */
+    private static final int MAGIC = 0x43544c47;
+
+    /**
+     * Current format version.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Size of the file header.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * File storing the catalog.
+     */
+    private static File catalogFile = join(getMainFolder(), "catalog");
+
+    /**
+     * Set current working directory to REMOTE.
+     *
+     * @param remote .../.gitlet
+     * */
+    static void setUpCatalog(File remote) {
+        catalogFile = join(remote, "catalog");
+    }
+
+    /**
+     * Add the saved commit C to the catalog, building the catalog
+     * from all commits instead if it is missing.
+     *
+     * @param c a commit just saved
+     */
+    static void add(Commit c) {
+        long end = end();
+        if (end == -1) {
+            rebuild();
+            return;
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try (FileChannel out = FileChannel.open(catalogFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            write(new DataOutputStream(record), c);
+            out.truncate(end);
+            out.write(ByteBuffer.wrap(record.toByteArray()), end);
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putLong(end + record.size()).flip();
+            out.write(header, 8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return END from the header of the catalog, or -1 if it is
+     * missing or of another version.
+     */
+    private static long end() {
+        if (!catalogFile.exists()) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(catalogFile.toPath()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            return in.readLong();
+        } catch (EOFException excp) {
+            return -1;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Print the log of every commit in the catalog through one
+     * buffered writer, building the catalog first if it is missing.
+     */
+    static void printAll() {
+        if (end() == -1) {
+            rebuild();
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), BUFFER_SIZE));
+        Set<String> seen = new HashSet<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(
+                        catalogFile.toPath()), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Catalog %s is corrupted.", catalogFile);
+            }
+            long end = in.readLong();
+            long pos = HEADER_SIZE;
+            byte[] id = new byte[UID_LENGTH / 2];
+            while (pos < end) {
+                in.readFully(id);
+                String hash = toHex(id);
+                List<String> parents = new ArrayList<>(2);
+                int n = in.readUnsignedByte();
+                for (int k = 0; k < n; k += 1) {
+                    in.readFully(id);
+                    parents.add(toHex(id));
+                }
+                byte[] date = new byte[in.readUnsignedShort()];
+                in.readFully(date);
+                byte[] log = new byte[in.readInt()];
+                in.readFully(log);
+                pos += id.length * (1 + n) + 1 + 2 + date.length + 4
+                        + log.length;
+                if (seen.add(hash)) {
+                    Commit.printLog(out, hash, parents,
+                            new String(date, StandardCharsets.UTF_8),
+                            new String(log, StandardCharsets.UTF_8));
+                }
+            }
+            out.flush();
+        } catch (EOFException excp) {
+            throw error("Catalog %s is corrupted.", catalogFile);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the catalog of all commits, loose or packed, replacing
+     * the file at once.
+     */
+    private static void rebuild() {
+        File tmp = new File(catalogFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        tmp.toPath()), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(0);
+            for (String id : Commit.commitIds()) {
+                write(out, Commit.readCommit(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (FileChannel out = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putLong(out.size()).flip();
+            out.write(header, 8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), catalogFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the record of commit C to OUT.
+     */
+    private static void write(DataOutputStream out, Commit c)
+            throws IOException {
+        writeId(out, c.commitSHA());
+        List<String> parents = c.parentHashes();
+        out.writeByte(parents.size());
+        for (String p : parents) {
+            writeId(out, p);
+        }
+        byte[] date = c.date().getBytes(StandardCharsets.UTF_8);
+        out.writeShort(date.length);
+        out.write(date);
+        byte[] log = c.log().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(log.length);
+        out.write(log);
+    }
+
+    /**
+     * Write the hexadecimal ID to OUT as bytes.
+     */
+    private static void writeId(DataOutputStream out, String id)
+            throws IOException {
+        for (int k = 0; k < UID_LENGTH; k += 2) {
+            out.writeByte(Integer.parseInt(id.substring(k, k + 2), 16));
+        }
+    }
+}
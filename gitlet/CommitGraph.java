@@ -0,0 +1,736 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+import static gitlet.Main.*;
+
+/**
+ * The shape of the commit history, so that ancestry can be followed
+ * without reading commits.
+ * <p>
+ * Every known commit has a position, and is described by its parents'
+ * positions, its generation number (1 for a root, else one more than
+ * its parents' largest) and its time.  A commit's ancestors all have
+ * smaller positions and smaller generations.
+ * <p>
+ * File: "CGPH" VERSION, then one record per commit, in the order
+ * they were added:
+ * ID(20 bytes) PARENT1(4 bytes) PARENT2(4 bytes) GENERATION(4 bytes)
+ * TIME(8 bytes), where a missing parent is -1.
+ * The file is memory-mapped when read and only ever appended to.
+ * Commits missing from it, such as those pushed from another
+ * repository, are added when first looked up, and it is built from
+ * all commits when missing.
+ * <p>
+ * Commits are found by hash through a lookup table, the file
+ * commit-graph.idx: "CGIX" VERSION COUNT, then a fan-out table of
+ * 256 counts, the number of entries whose hash's first byte is at
+ * most each value, then COUNT entries ID(20 bytes) POSITION(4 bytes)
+ * sorted by hash, for the commits at the first COUNT positions.  It
+ * is mapped and searched by binary search.  Only the commits after
+ * those are read when the graph is loaded, and the table is written
+ * again once they grow to a quarter of it.
+ *
+ * @author Ang Wang
+ */
+class CommitGraph {
+
+    /**
+     * Magic number opening the file, "CGPH".
+     */
+    private static final int MAGIC = 0x43475048;
+
+    /**
+     * Current format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the file header.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Size of a record.
+     */
+    private static final int RECORD_SIZE = 20 + 4 + 4 + 4 + 8;
+
+    /**
+     * Offsets of the fields of a record.
+     */
+    private static final int PARENT1 = 20, PARENT2 = 24, GENERATION = 28,
+            TIME = 32;
+
+    /**
+     * Magic number opening the lookup table, "CGIX".
+     */
+    private static final int LOOKUP_MAGIC = 0x43474958;
+
+    /**
+     * Offset of the fan-out table in the lookup table.
+     */
+    private static final int FANOUT = 12;
+
+    /**
+     * Size of the lookup table's header, fan-out table included.
+     */
+    private static final int LOOKUP_HEADER_SIZE = FANOUT + 256 * 4;
+
+    /**
+     * Size of an entry of the lookup table.
+     */
+    private static final int LOOKUP_ENTRY_SIZE = 20 + 4;
+
+    /**
+     * Fewest commits outside the lookup table worth sorting in.
+     */
+    private static final int MIN_TAIL = 1024;
+
+    /**
+     * Mark of commits reached from the first side of a merge base
+     * search.
+     */
+    private static final byte FROM_A = 1;
+
+    /**
+     * Mark of commits reached from the second side.
+     */
+    private static final byte FROM_B = 2;
+
+    /**
+     * Mark of commits reached from a common ancestor, which cannot
+     * be a best merge base.
+     */
+    private static final byte STALE = 4;
+
+    /**
+     * Mark of commits put in the queue.
+     */
+    private static final byte QUEUED = 8;
+
+    /**
+     * Order of positions by decreasing generation, then decreasing
+     * position, so that a commit comes before its ancestors.
+     */
+    private static final Comparator<Integer> NEWEST_FIRST =
+            Comparator.comparingInt(CommitGraph::generation)
+                    .thenComparingInt(i -> i).reversed();
+
+    /**
+     * File storing the graph.
+     */
+    private static File graphFile = join(getMainFolder(), "commit-graph");
+
+    /**
+     * File storing the lookup table.
+     */
+    private static File lookupFile =
+            join(getMainFolder(), "commit-graph.idx");
+
+    /**
+     * Set current working directory to REMOTE.
+     *
+     * @param remote .../.gitlet
+     * */
+    static void setUpGraph(File remote) {
+        close();
+        graphFile = join(remote, "commit-graph");
+        lookupFile = join(remote, "commit-graph.idx");
+    }
+
+    /**
+     * Return the position of the commit ID, adding it and its
+     * missing ancestors if needed.  Only commits stored in the
+     * current repository are added.
+     *
+     * @param id a commit's full hash
+     * @return its position or -1 if it or one of its ancestors is not
+     *         stored
+     */
+    static int index(String id) {
+        load();
+        int i = position(id);
+        if (i != -1) {
+            return i;
+        }
+        ArrayDeque<Commit> stack = new ArrayDeque<>();
+        Commit c = stored(id);
+        if (c == null) {
+            return -1;
+        }
+        stack.push(c);
+        while (!stack.isEmpty()) {
+            Commit top = stack.peek();
+            if (position(top.commitSHA()) != -1) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (String p : top.parentHashes()) {
+                if (position(p) == -1) {
+                    Commit parent = stored(p);
+                    if (parent == null) {
+                        return -1;
+                    }
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                append(top);
+                stack.pop();
+            }
+        }
+        return position(id);
+    }
+
+    /**
+     * Return the commit ID if it is stored in the current repository,
+     * else null.
+     */
+    private static Commit stored(String id) {
+        return Commit.contains(id) ? Commit.readCommit(id) : null;
+    }
+
+    /**
+     * Add the commit ID and its missing ancestors.
+     *
+     * @param id a commit's full hash
+     */
+    static void add(String id) {
+        index(id);
+    }
+
+    /**
+     * Return the number of commits in the graph.
+     */
+    static int size() {
+        load();
+        return count;
+    }
+
+    /**
+     * Return the hash of the commit at I.
+     */
+    static String id(int i) {
+        byte[] id = new byte[UID_LENGTH / 2];
+        ByteBuffer buf = buffer(i);
+        int base = offset(i);
+        for (int k = 0; k < id.length; k += 1) {
+            id[k] = buf.get(base + k);
+        }
+        return toHex(id);
+    }
+
+    /**
+     * Return the position of the first parent of the commit at I,
+     * or -1 if it has none.
+     */
+    static int parent1(int i) {
+        return buffer(i).getInt(offset(i) + PARENT1);
+    }
+
+    /**
+     * Return the position of the second parent of the commit at I,
+     * or -1 if it has none.
+     */
+    static int parent2(int i) {
+        return buffer(i).getInt(offset(i) + PARENT2);
+    }
+
+    /**
+     * Return the generation number of the commit at I.
+     */
+    static int generation(int i) {
+        return buffer(i).getInt(offset(i) + GENERATION);
+    }
+
+    /**
+     * Return the time of the commit at I.
+     */
+    static long time(int i) {
+        return buffer(i).getLong(offset(i) + TIME);
+    }
+
+    /**
+     * Return the positions of the commit at START and of all its
+     * ancestors, not going past the commits in STOP.
+     * Commits are visited once each, breadth first.
+     *
+     * @param start position of the commit to start from
+     * @param stop  positions not to visit, or null
+     */
+    static BitSet ancestors(int start, BitSet stop) {
+        BitSet visited = new BitSet(size());
+        int[] queue = new int[size()];
+        int head = 0;
+        int tail = 0;
+        if (stop == null || !stop.get(start)) {
+            visited.set(start);
+            queue[tail++] = start;
+        }
+        while (head < tail) {
+            int i = queue[head++];
+            for (int p : new int[] {parent1(i), parent2(i)}) {
+                if (p != -1 && !visited.get(p)
+                        && (stop == null || !stop.get(p))) {
+                    visited.set(p);
+                    queue[tail++] = p;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Return the position of the commit in TARGETS that is the
+     * fewest parent links away from the commit at START, or -1 if
+     * none of them is an ancestor of it.
+     *
+     * @param start   position of the commit to start from
+     * @param targets positions of the commits looked for
+     */
+    static int closest(int start, BitSet targets) {
+        BitSet visited = new BitSet(size());
+        int[] queue = new int[size()];
+        int head = 0;
+        int tail = 0;
+        visited.set(start);
+        queue[tail++] = start;
+        while (head < tail) {
+            int i = queue[head++];
+            if (targets.get(i)) {
+                return i;
+            }
+            for (int p : new int[] {parent1(i), parent2(i)}) {
+                if (p != -1 && !visited.get(p)) {
+                    visited.set(p);
+                    queue[tail++] = p;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the positions of the best merge bases of the commits at
+     * A and B: their common ancestors that are not ancestors of
+     * another common ancestor.  Newest first.
+     * <p>
+     * Both sides are walked back together, newest generation first,
+     * marking each commit with the sides that reach it.  A commit
+     * reached from both is a candidate, and its ancestors are marked
+     * stale; the walk stops once only stale commits are left, so
+     * commits older than the bases are not visited.
+     *
+     * @param a position of one commit
+     * @param b position of the other
+     */
+    static List<Integer> mergeBases(int a, int b) {
+        List<Integer> res = new ArrayList<>();
+        if (a == b) {
+            res.add(a);
+            return res;
+        }
+        byte[] flags = new byte[size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(NEWEST_FIRST);
+        flags[a] = FROM_A | QUEUED;
+        flags[b] = FROM_B | QUEUED;
+        queue.add(a);
+        queue.add(b);
+        int live = 2;
+        List<Integer> candidates = new ArrayList<>();
+        while (live > 0) {
+            int i = queue.poll();
+            int f = flags[i] & (FROM_A | FROM_B | STALE);
+            if ((f & STALE) == 0) {
+                live -= 1;
+                if (f == (FROM_A | FROM_B)) {
+                    candidates.add(i);
+                    f |= STALE;
+                }
+            }
+            for (int p : new int[] {parent1(i), parent2(i)}) {
+                if (p == -1 || (flags[p] & f) == f) {
+                    continue;
+                }
+                boolean queued = (flags[p] & QUEUED) != 0;
+                boolean wasLive = queued && (flags[p] & STALE) == 0;
+                flags[p] |= f | QUEUED;
+                boolean isLive = (flags[p] & STALE) == 0;
+                if (!queued) {
+                    queue.add(p);
+                }
+                if (isLive && !wasLive) {
+                    live += 1;
+                } else if (wasLive && !isLive) {
+                    live -= 1;
+                }
+            }
+        }
+        for (int c : candidates) {
+            if (!reachable(candidates, c)) {
+                res.add(c);
+            }
+        }
+        res.sort(Comparator.comparingLong(CommitGraph::time).reversed()
+                .thenComparing(CommitGraph::id));
+        return res;
+    }
+
+    /**
+     * Return whether the commit at TARGET is an ancestor of one of the
+     * commits at STARTS other than itself.  Commits of lower
+     * generation than TARGET's cannot lead to it and are not visited.
+     *
+     * @param starts positions of the commits to start from
+     * @param target position of the commit looked for
+     */
+    private static boolean reachable(List<Integer> starts, int target) {
+        int gen = generation(target);
+        BitSet visited = new BitSet(size());
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int s : starts) {
+            if (s != target && !visited.get(s)) {
+                visited.set(s);
+                queue.add(s);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int i = queue.poll();
+            for (int p : new int[] {parent1(i), parent2(i)}) {
+                if (p == target) {
+                    return true;
+                }
+                if (p != -1 && !visited.get(p) && generation(p) > gen) {
+                    visited.set(p);
+                    queue.add(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add to RES the full hashes of the commits whose hashes start
+     * with PREFIX, until RES has LIMIT hashes.  Sorted ones are found
+     * through the fan-out table and binary search.
+     *
+     * @param prefix a prefix of a commit's hash, in lowercase
+     * @param limit  the most hashes wanted
+     * @param res    the set of hashes found so far
+     */
+    static void complete(String prefix, int limit, Set<String> res) {
+        load();
+        for (int k = lowerBound(prefix); k < sorted && res.size() < limit
+                && compare(k, prefix) == 0; k += 1) {
+            res.add(id(lookup.getInt(entry(k) + UID_LENGTH / 2)));
+        }
+        for (String id : tail.keySet()) {
+            if (res.size() < limit && id.startsWith(prefix)) {
+                res.add(id);
+            }
+        }
+    }
+
+    /**
+     * Read the graph file if not read yet.  Only the records not yet
+     * in the lookup table are read now; the others are read from the
+     * mapped files when needed.  If there is no graph, it is built
+     * from all commits.
+     */
+    private static void load() {
+        if (tail != null) {
+            return;
+        }
+        tail = new HashMap<>();
+        added = ByteBuffer.allocate(64 * RECORD_SIZE);
+        records = null;
+        lookup = null;
+        mapped = 0;
+        count = 0;
+        sorted = 0;
+        boolean missing = !graphFile.exists();
+        if (!missing) {
+            records = map(graphFile);
+            if (records.capacity() >= HEADER_SIZE
+                    && records.getInt(0) == MAGIC
+                    && records.getInt(4) <= VERSION) {
+                mapped = (records.capacity() - HEADER_SIZE) / RECORD_SIZE;
+                count = mapped;
+            }
+        }
+        if (lookupFile.exists()) {
+            lookup = map(lookupFile);
+            if (lookup.capacity() >= LOOKUP_HEADER_SIZE
+                    && lookup.getInt(0) == LOOKUP_MAGIC
+                    && lookup.getInt(4) <= VERSION
+                    && lookup.getInt(8) <= count) {
+                sorted = lookup.getInt(8);
+            }
+        }
+        for (int i = sorted; i < count; i += 1) {
+            tail.put(id(i), i);
+        }
+        if (tail.size() > Math.max(MIN_TAIL, sorted / 4)) {
+            writeLookup();
+        }
+        if (missing) {
+            for (String id : Commit.commitIds()) {
+                index(id);
+            }
+        }
+    }
+
+    /**
+     * Return FILE, mapped.
+     */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the position of the commit ID, or -1 if it is not in the
+     * graph.
+     */
+    private static int position(String id) {
+        Integer i = tail.get(id);
+        if (i != null) {
+            return i;
+        }
+        int k = lowerBound(id);
+        if (k < sorted && compare(k, id) == 0) {
+            return lookup.getInt(entry(k) + UID_LENGTH / 2);
+        }
+        return -1;
+    }
+
+    /**
+     * Return the first entry of the lookup table whose hash is not
+     * below the hexadecimal prefix HASH, found through the fan-out
+     * table and binary search.
+     */
+    private static int lowerBound(String hash) {
+        int lo = 0;
+        int hi = sorted;
+        if (sorted > 0 && hash.length() >= 2) {
+            int b = Integer.parseInt(hash.substring(0, 2), 16);
+            lo = b == 0 ? 0 : lookup.getInt(FANOUT + (b - 1) * 4);
+            hi = lookup.getInt(FANOUT + b * 4);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, hash) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Compare the start of the hash of entry K of the lookup table
+     * with the hexadecimal prefix HASH.
+     */
+    private static int compare(int k, String hash) {
+        int base = entry(k);
+        for (int d = 0; d < hash.length(); d += 1) {
+            int b = lookup.get(base + d / 2) & 0xff;
+            int digit = (d % 2 == 0) ? b >>> 4 : b & 0xf;
+            int want = Character.digit(hash.charAt(d), 16);
+            if (digit != want) {
+                return digit - want;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Return the offset of entry K in the lookup table.
+     */
+    private static int entry(int k) {
+        return LOOKUP_HEADER_SIZE + k * LOOKUP_ENTRY_SIZE;
+    }
+
+    /**
+     * Return the buffer holding the record of the commit at I.
+     */
+    private static ByteBuffer buffer(int i) {
+        return i < mapped ? records : added;
+    }
+
+    /**
+     * Return the offset of the record of the commit at I in its
+     * buffer.
+     */
+    private static int offset(int i) {
+        return i < mapped ? HEADER_SIZE + i * RECORD_SIZE
+                : (i - mapped) * RECORD_SIZE;
+    }
+
+    /**
+     * Write the lookup table of all commits in the graph, replacing
+     * the file at once, and map it.
+     */
+    private static void writeLookup() {
+        byte[][] entries = new byte[count][];
+        for (int i = 0; i < count; i += 1) {
+            ByteBuffer e = ByteBuffer.allocate(LOOKUP_ENTRY_SIZE);
+            for (int k = 0; k < UID_LENGTH / 2; k += 1) {
+                e.put(buffer(i).get(offset(i) + k));
+            }
+            entries[i] = e.putInt(i).array();
+        }
+        Arrays.sort(entries, (a, b) -> Arrays.compareUnsigned(a, 0,
+                UID_LENGTH / 2, b, 0, UID_LENGTH / 2));
+        ByteBuffer header = ByteBuffer.allocate(LOOKUP_HEADER_SIZE);
+        header.putInt(LOOKUP_MAGIC).putInt(VERSION).putInt(count);
+        int k = 0;
+        for (int b = 0; b < 256; b += 1) {
+            while (k < count && (entries[k][0] & 0xff) <= b) {
+                k += 1;
+            }
+            header.putInt(k);
+        }
+        File tmp = new File(lookupFile.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), BUFFER_SIZE)) {
+            out.write(header.array());
+            for (byte[] e : entries) {
+                out.write(e);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), lookupFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        lookup = map(lookupFile);
+        sorted = count;
+        tail.clear();
+    }
+
+    /**
+     * Add commit C, whose parents are in the graph, to the graph
+     * and to the end of the file.
+     */
+    private static void append(Commit c) {
+        List<String> parents = c.parentHashes();
+        int p1 = parents.size() > 0 ? position(parents.get(0)) : -1;
+        int p2 = parents.size() > 1 ? position(parents.get(1)) : -1;
+        int gen = 1;
+        for (String p : parents) {
+            gen = Math.max(gen, generation(position(p)) + 1);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        String id = c.commitSHA();
+        for (int k = 0; k < UID_LENGTH; k += 2) {
+            record.put((byte) Integer.parseInt(id.substring(k, k + 2), 16));
+        }
+        record.putInt(p1).putInt(p2).putInt(gen).putLong(c.time());
+        record.flip();
+        try (FileChannel out = FileChannel.open(graphFile.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            long end = HEADER_SIZE + (long) count * RECORD_SIZE;
+            if (out.size() < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                out.write(header, 0);
+            }
+            out.truncate(end);
+            out.write(record, end);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (added.remaining() < RECORD_SIZE) {
+            ByteBuffer bigger = ByteBuffer.allocate(added.capacity() * 2);
+            added.flip();
+            bigger.put(added);
+            added = bigger;
+        }
+        record.rewind();
+        added.put(record);
+        tail.put(id, count);
+        count += 1;
+        if (tail.size() > Math.max(MIN_TAIL, sorted / 4)) {
+            writeLookup();
+        }
+    }
+
+    /**
+     * Forget the graph read so far.
+     */
+    private static void close() {
+        tail = null;
+        records = null;
+        added = null;
+        lookup = null;
+    }
+
+    /**
+     * The graph file, mapped, or null if there is none.
+     */
+    private static MappedByteBuffer records;
+
+    /**
+     * Number of records in RECORDS.
+     */
+    private static int mapped;
+
+    /**
+     * Records of the commits added since the graph was read, those at
+     * positions from MAPPED on.
+     */
+    private static ByteBuffer added;
+
+    /**
+     * Number of commits in the graph.
+     */
+    private static int count;
+
+    /**
+     * The lookup table, mapped, or null if there is none.
+     */
+    private static MappedByteBuffer lookup;
+
+    /**
+     * Number of commits in the lookup table, those at the first
+     * positions.
+     */
+    private static int sorted;
+
+    /**
+     * Position of each commit not in the lookup table. NULL until
+     * loaded.
+     */
+    private static HashMap<String, Integer> tail;
+}
@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Deltas between two versions of a file's content.
+ * <p>
+ * A delta is: BASE(20 bytes) DEPTH(1 byte) LENGTH(varint), then
+ * instructions rebuilding the target from the base:
+ * INSERT(0) N(varint) followed by N literal bytes, or
+ * COPY(1) OFFSET(varint) N(varint) copying N bytes of the base.
+ * BASE is the base's hash, DEPTH the length of the chain of deltas
+ * down to a full blob and LENGTH the length of the target.
+ *
+ * @author Ang Wang
+ */
+class Delta {
+
+    /**
+     * Instruction inserting literal bytes.
+     */
+    private static final int INSERT = 0;
+
+    /**
+     * Instruction copying bytes from the base.
+     */
+    private static final int COPY = 1;
+
+    /**
+     * Length of the blocks of the base that are indexed.
+     * Matches shorter than that are not found.
+     */
+    private static final int BLOCK = 16;
+
+    /**
+     * Multiplier of the rolling hash.
+     */
+    private static final int PRIME = 31;
+
+    /**
+     * PRIME ^ (BLOCK - 1), to drop the oldest byte from the hash.
+     */
+    private static final int TOP;
+
+    static {
+        int t = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            t *= PRIME;
+        }
+        TOP = t;
+    }
+
+    /**
+     * Return the delta rebuilding TARGET from BASE.
+     *
+     * @param baseHash the base's hash
+     * @param depth    the depth of the delta
+     * @param base     the base's content
+     * @param target   the content to rebuild
+     */
+    static byte[] create(String baseHash, int depth, byte[] base,
+                         byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int k = 0; k < UID_LENGTH; k += 2) {
+            out.write(Integer.parseInt(baseHash.substring(k, k + 2), 16));
+        }
+        out.write(depth);
+        writeVarint(out, target.length);
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer at = blocks.get(h);
+            if (at != null && matches(base, at, target, i, BLOCK)) {
+                int start = at;
+                int len = BLOCK;
+                while (start + len < base.length && i + len < target.length
+                        && base[start + len] == target[i + len]) {
+                    len += 1;
+                }
+                while (start > 0 && i > pending
+                        && base[start - 1] == target[i - 1]) {
+                    start -= 1;
+                    i -= 1;
+                    len += 1;
+                }
+                insert(out, target, pending, i);
+                out.write(COPY);
+                writeVarint(out, start);
+                writeVarint(out, len);
+                i += len;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - (target[i] & 0xff) * TOP) * PRIME
+                            + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the content rebuilt by applying DELTA to BASE.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {UID_LENGTH / 2 + 1};
+        byte[] res = new byte[(int) readVarint(delta, pos)];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int len = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, res, n, len);
+                n += len;
+            } else {
+                int len = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], res, n, len);
+                pos[0] += len;
+                n += len;
+            }
+        }
+        if (n != res.length) {
+            throw error("Corrupted delta.");
+        }
+        return res;
+    }
+
+    /**
+     * Return the hash of the base of DELTA.
+     */
+    static String base(byte[] delta) {
+        byte[] id = new byte[UID_LENGTH / 2];
+        System.arraycopy(delta, 0, id, 0, id.length);
+        return toHex(id);
+    }
+
+    /**
+     * Return the length of the content DELTA rebuilds.
+     */
+    static long length(byte[] delta) {
+        int[] pos = {UID_LENGTH / 2 + 1};
+        return readVarint(delta, pos);
+    }
+
+    /**
+     * Return the depth of DELTA.
+     */
+    static int depth(byte[] delta) {
+        return delta[UID_LENGTH / 2] & 0xff;
+    }
+
+    /**
+     * Write an instruction inserting TARGET[FROM..TO) to OUT,
+     * if that range is not empty.
+     */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /**
+     * Return whether the LEN bytes of A at I equal those of B at J.
+     */
+    private static boolean matches(byte[] a, int i, byte[] b, int j,
+                                   int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the rolling hash of the BLOCK bytes of DATA at I.
+     */
+    private static int hash(byte[] data, int i) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + (data[i + k] & 0xff);
+        }
+        return h;
+    }
+
+    /**
+     * Write the non-negative VALUE to OUT, 7 bits a byte.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Read a varint from DATA at POS[0], and advance POS[0] past it.
+     */
+    private static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            value |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
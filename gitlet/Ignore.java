@@ -0,0 +1,274 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/**
+ * The patterns of a .gitletignore file, compiled once into a matcher
+ * for the paths found while scanning the working directory.
+ * <p>
+ * One pattern per line; blank lines and lines starting with # are
+ * skipped.  A pattern ending in / only matches directories.  A
+ * pattern with a / before its end matches paths relative to the
+ * working directory; any other matches file and directory names at
+ * any depth.  * matches any characters but /, ? any one of them, **
+ * any characters at all, ** then / any directories, even none, and
+ * [...] one of a class.  Patterns with ! are not supported, and
+ * skipped.
+ * <p>
+ * Literal patterns are looked up in hash sets, patterns that are a
+ * literal followed by * in a trie of prefixes, and those that are *
+ * followed by a literal in a trie of reversed suffixes; only the
+ * others are matched as regular expressions.  A scan checks each
+ * directory before listing it, so ignored directories are pruned
+ * whole, and paths are only matched against the patterns, not
+ * against their parents'.
+ *
+ * @author Ang Wang
+ */
+class Ignore {
+
+    /**
+     * Name of the file listing the patterns.
+     */
+    static final String FILE_NAME = ".gitletignore";
+
+    /**
+     * The matcher for the patterns in ROOT/.gitletignore, which
+     * ignores nothing if there is no such file.
+     *
+     * @param root the working directory
+     */
+    static Ignore load(File root) {
+        Ignore res = new Ignore();
+        File file = join(root, FILE_NAME);
+        if (file.isFile()) {
+            for (String line : readContentsAsString(file).split("\n")) {
+                res.add(line.strip());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Return whether the file or directory at PATH, relative to the
+     * working directory, matches a pattern.
+     *
+     * @param path a path separated by Tree.SEPARATOR
+     * @param dir  whether PATH is a directory
+     */
+    boolean ignored(String path, boolean dir) {
+        String name = path.substring(path.lastIndexOf(Tree.SEPARATOR) + 1);
+        return _names[0].matches(name) || _paths[0].matches(path)
+                || dir && (_names[1].matches(name)
+                           || _paths[1].matches(path));
+    }
+
+    /**
+     * Add the pattern on LINE.
+     */
+    private void add(String line) {
+        if (line.isEmpty() || line.startsWith("#")
+                || line.startsWith("!")) {
+            return;
+        }
+        int dirOnly = 0;
+        if (line.endsWith(Tree.SEPARATOR)) {
+            dirOnly = 1;
+            line = line.substring(0, line.length() - 1);
+        }
+        if (line.contains(Tree.SEPARATOR)) {
+            line = line.startsWith(Tree.SEPARATOR) ? line.substring(1)
+                    : line;
+            _paths[dirOnly].add(line);
+        } else if (!line.isEmpty()) {
+            _names[dirOnly].add(line);
+        }
+    }
+
+    /**
+     * Patterns for names; those for files and directories at 0,
+     * those for directories only at 1.
+     */
+    private final Patterns[] _names = {new Patterns(), new Patterns()};
+
+    /**
+     * Patterns for paths relative to the working directory, in the
+     * same order.
+     */
+    private final Patterns[] _paths = {new Patterns(), new Patterns()};
+
+    /**
+     * A set of glob patterns, sorted by how they can be matched.
+     */
+    private static class Patterns {
+
+        /**
+         * Add the glob PATTERN.
+         */
+        void add(String pattern) {
+            int star = pattern.indexOf('*');
+            if (!wild(pattern)) {
+                _exact.add(pattern);
+            } else if (star == pattern.length() - 1
+                    && !wild(pattern.substring(0, star))) {
+                _prefixes.add(pattern.substring(0, star));
+            } else if (star == 0 && !wild(pattern.substring(1))) {
+                _suffixes.add(new StringBuilder(pattern.substring(1))
+                        .reverse().toString());
+            } else {
+                _globs.add(compile(pattern));
+            }
+        }
+
+        /**
+         * Return whether S matches one of the patterns.  * never
+         * matches a separator.
+         */
+        boolean matches(String s) {
+            if (_exact.contains(s)) {
+                return true;
+            }
+            int end = _prefixes.longestIn(s, false);
+            if (end != -1 && s.indexOf(Tree.SEPARATOR, end) == -1) {
+                return true;
+            }
+            int start = _suffixes.longestIn(s, true);
+            if (start != -1
+                    && s.lastIndexOf(Tree.SEPARATOR, start - 1) == -1) {
+                return true;
+            }
+            for (Pattern p : _globs) {
+                if (p.matcher(s).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Return whether the glob PATTERN has wildcards.
+         */
+        private static boolean wild(String pattern) {
+            for (int i = 0; i < pattern.length(); i += 1) {
+                if ("*?[".indexOf(pattern.charAt(i)) != -1) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Return the regular expression matching what the glob
+         * PATTERN matches.
+         */
+        private static Pattern compile(String pattern) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < pattern.length(); i += 1) {
+                char c = pattern.charAt(i);
+                if (pattern.startsWith("**/", i)) {
+                    regex.append("(.*/)?");
+                    i += 2;
+                } else if (pattern.startsWith("**", i)) {
+                    regex.append(".*");
+                    i += 1;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else if (c == '[' && pattern.indexOf(']', i + 1) != -1) {
+                    int end = pattern.indexOf(']', i + 1);
+                    String set = pattern.substring(i + 1, end);
+                    regex.append('[');
+                    if (set.startsWith("!")) {
+                        regex.append('^');
+                        set = set.substring(1);
+                    }
+                    regex.append(set.replace("\\", "\\\\")
+                            .replace("[", "\\[")).append(']');
+                    i = end;
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString());
+        }
+
+        /**
+         * Literal patterns.
+         */
+        private final Set<String> _exact = new HashSet<>();
+
+        /**
+         * Literals of patterns LITERAL*.
+         */
+        private final Trie _prefixes = new Trie();
+
+        /**
+         * Literals of patterns *LITERAL, reversed.
+         */
+        private final Trie _suffixes = new Trie();
+
+        /**
+         * Other patterns, compiled.
+         */
+        private final List<Pattern> _globs = new ArrayList<>();
+    }
+
+    /**
+     * A trie of strings, by character.
+     */
+    private static class Trie {
+
+        /**
+         * Add S.
+         */
+        void add(String s) {
+            Trie node = this;
+            for (int i = 0; i < s.length(); i += 1) {
+                node = node._children.computeIfAbsent(s.charAt(i),
+                        k -> new Trie());
+            }
+            node._terminal = true;
+        }
+
+        /**
+         * Return the index in S just after the longest string of
+         * the trie that S starts with, or, if REVERSED, the index
+         * where the longest string of the trie that S ends with,
+         * reversed, starts.  Return -1 if there is none.
+         */
+        int longestIn(String s, boolean reversed) {
+            Trie node = this;
+            int res = -1;
+            for (int k = 0; node != null; k += 1) {
+                if (node._terminal) {
+                    res = reversed ? s.length() - k : k;
+                }
+                if (k == s.length()) {
+                    break;
+                }
+                char c = s.charAt(reversed ? s.length() - 1 - k : k);
+                node = node._children.get(c);
+            }
+            return res;
+        }
+
+        /**
+         * The tries of the strings following each character.
+         */
+        private final HashMap<Character, Trie> _children = new HashMap<>();
+
+        /**
+         * Whether a string ends here.
+         */
+        private boolean _terminal;
+    }
+}
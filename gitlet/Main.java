@@ -1,15 +1,30 @@
 package gitlet;
 
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 
@@ -78,6 +93,26 @@ public class Main {
      */
     public static void main(String... args) {
         preCheck(args);
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+        saveStage();
+        StatCache.save();
+        if (ObjectCache.STATS) {
+            System.err.println(Commit.getCache());
+            System.err.println(Tree.getCache());
+            System.err.println(Blob.getCache());
+        }
+    }
+
+    /**
+     * Run the command ARGS[0] with operands ARGS.
+     *
+     * @param args the command and its operands
+     */
+    private static void run(String... args) {
         switch (args[0]) {
         case "add":
             add(args);
@@ -130,10 +165,12 @@ public class Main {
         case "pull":
             pull(args);
             break;
+        case "pack":
+            pack(args);
+            break;
         default:
             exitWithError("No command with that name exists.");
         }
-        return;
     }
 
     /**
@@ -158,6 +195,19 @@ public class Main {
         return;
     }
 
+    /**
+     * Roll loose objects into a pack, choosing delta bases
+     * for blobs, and print how much space that saved.
+     *
+     * @param args pack
+     */
+    private static void pack(String... args) {
+        if (args.length != 1) {
+            exitWithError("Incorrect operands.");
+        }
+        Pack.packObjects();
+    }
+
     /**
      * Pull.
      *
@@ -175,7 +225,9 @@ public class Main {
     }
 
     /**
-     * Fetch.
+     * Fetch.  Only the commits the remote branch has that no local
+     * branch has, as far as the remote's commit graph tells, are
+     * read and copied.
      *
      * @param args fetch [remote name] [remote branch name]
      */
@@ -185,6 +237,8 @@ public class Main {
         }
         String remoteName = args[1];
         String remoteBranch = args[2];
+        readHEAD(true);
+        Set<String> known = new HashSet<>(getBranches().values());
         boolean isReady = setRemoteFolder(remoteName);
         if (!isReady) {
             exitWithError("Remote directory not found.");
@@ -194,21 +248,42 @@ public class Main {
             exitWithError("That remote does not have that branch.");
         }
         Commit remoteHead = readCommit(getBranches().get(remoteBranch));
+        BitSet stop = new BitSet();
+        for (String id : known) {
+            int i = CommitGraph.index(id);
+            if (i != -1 && !stop.get(i)) {
+                stop.or(CommitGraph.ancestors(i, stop));
+            }
+        }
         Set<Commit> appendCommits = new HashSet<>();
         Set<Blob> appendBlobs = new HashSet<>();
-        remoteHead.ancestors(appendCommits);
-        for (Commit c : appendCommits) {
+        Map<String, RawObject> appendTrees = new HashMap<>();
+        BitSet missing = CommitGraph.ancestors(
+                CommitGraph.index(remoteHead.commitSHA()), stop);
+        for (int i = missing.nextSetBit(0); i >= 0;
+             i = missing.nextSetBit(i + 1)) {
+            Commit c = readCommit(CommitGraph.id(i));
+            appendCommits.add(c);
             c.addBlobs(appendBlobs);
+            c.addTrees(appendTrees);
         }
         setFolderBack();
         readHEAD(true);
         String localBranch = remoteName + "/" + remoteBranch;
         for (Commit c : appendCommits) {
-            saveCommit(c);
+            if (!Commit.contains(c.commitSHA())) {
+                saveCommit(c);
+                MessageIndex.add(c);
+                CommitCatalog.add(c);
+            }
         }
         for (Blob b : appendBlobs) {
             b.saveBlob();
         }
+        for (Map.Entry<String, RawObject> e : appendTrees.entrySet()) {
+            Tree.copy(e.getKey(), e.getValue());
+        }
+        CommitGraph.add(remoteHead.commitSHA());
         File remoteFolder = join(getBranchFolder(), remoteName);
         if (!remoteFolder.exists()) {
             remoteFolder.mkdir();
@@ -240,34 +315,43 @@ public class Main {
         setFolderBack();
         readHEAD(false);
         Commit localHead = getHead();
-        HashSet<Commit> parents = new HashSet<>();
-        getHead().ancestors(parents);
-        HashSet<String> p = new HashSet<>();
-        getHead().ancestors(p, null, 0);
-        if (!p.contains(remoteHead.commitSHA())) {
+        if (!Commit.contains(remoteHash)) {
+            exitWithError("Please pull down remote changes before pushing.");
+        }
+        int local = CommitGraph.index(localHead.commitSHA());
+        int remote = CommitGraph.index(remoteHash);
+        BitSet remoteParents = CommitGraph.ancestors(remote, null);
+        BitSet target = new BitSet();
+        target.set(remote);
+        if (CommitGraph.closest(local, target) == -1) {
             exitWithError("Please pull down remote changes before pushing.");
         }
         Set<Commit> appendCommits = new HashSet<>();
         Set<Blob> appendBlobs = new HashSet<>();
-        boolean hasChild = true;
-        while (hasChild) {
-            hasChild = false;
-            for (Commit c : parents) {
-                if (c.hasParent(remoteHash)) {
-                    hasChild = true;
-                    appendCommits.add(c);
-                    c.addBlobs(appendBlobs);
-                    remoteHash = c.commitSHA();
-                }
-            }
+        Map<String, RawObject> appendTrees = new HashMap<>();
+        BitSet missing = CommitGraph.ancestors(local, remoteParents);
+        for (int i = missing.nextSetBit(0); i >= 0;
+             i = missing.nextSetBit(i + 1)) {
+            Commit c = readCommit(CommitGraph.id(i));
+            appendCommits.add(c);
+            c.addBlobs(appendBlobs);
+            c.addTrees(appendTrees);
         }
         setRemoteFolder(remoteName);
         for (Commit c : appendCommits) {
-            saveCommit(c);
+            if (!Commit.contains(c.commitSHA())) {
+                saveCommit(c);
+                MessageIndex.add(c);
+                CommitCatalog.add(c);
+            }
         }
         for (Blob b : appendBlobs) {
             b.saveBlob();
         }
+        for (Map.Entry<String, RawObject> e : appendTrees.entrySet()) {
+            Tree.copy(e.getKey(), e.getValue());
+        }
+        CommitGraph.add(localHead.commitSHA());
         setCurBranch(remoteBranchName);
         reset("reset", localHead.commitSHA());
         setFolderBack();
@@ -318,10 +402,10 @@ public class Main {
         HashMap<String, String> branchMap = branch.allMap();
         Commit cur = getHead();
         HashMap<String, String> curMap = cur.allMap();
-        Set<String> fileInBranch = branch.allMap().keySet();
-        Set<String> fileInCurB = cur.allMap().keySet();
-        List<String> working = plainFilenamesIn(cwd);
-        checkOverwriteUntracked(fileInCurB, fileInBranch, working);
+        Set<String> fileInBranch = new HashSet<>(branchMap.keySet());
+        Set<String> fileInCurB = new HashSet<>(curMap.keySet());
+        checkOverwriteUntracked(fileInCurB, fileInBranch,
+                WorkingTree.files());
         Commit splitPoint = findSP(getHead(), branch);
         if (splitPoint.commitSHA().equals(branch.commitSHA())) {
             System.out.println("Given branch is an ancestor "
@@ -334,38 +418,31 @@ public class Main {
             return;
         }
         boolean isConflict = false;
-        Set<String> fileInSP = splitPoint.allMap().keySet();
-        for (String s : fileInSP) {
-            boolean modInBranch =
-                    !splitPoint.allMap().get(s).equals(branchMap.get(s));
-            if (splitPoint.allMap().get(s).equals(curMap.get(s))) {
-                if (!branchMap.containsKey(s)) {
+        Map<String, String> writes = new TreeMap<>();
+        for (Map.Entry<String, String[]> e
+                : splitPoint.diff(branch).entrySet()) {
+            String s = e.getKey();
+            String inSP = e.getValue()[0];
+            String inBranch = e.getValue()[1];
+            String inCur = curMap.get(s);
+            if (inSP != null && inSP.equals(inCur)) {
+                if (inBranch == null) {
                     remove("rm", s);
-                } else if (modInBranch) {
-                    checkoutFileWithCommit(branch, s);
-                    add("add", s);
-                }
-            } else if (curMap.containsKey(s)) {
-                if (modInBranch
-                        && !curMap.get(s).equals(branchMap.get(s))) {
-                    writeConflict(s, curMap.get(s), branchMap.get(s));
-                    isConflict = true;
+                } else {
+                    writes.put(s, inBranch);
                 }
-            } else if (branchMap.containsKey(s) && modInBranch) {
-                writeConflict(s, curMap.get(s), branchMap.get(s));
+            } else if (inSP == null && inCur == null) {
+                writes.put(s, inBranch);
+            } else if (inBranch == null ? inCur != null
+                    : !inBranch.equals(inCur)) {
+                writeConflict(s, inCur, inBranch);
                 isConflict = true;
             }
         }
-        fileInCurB.removeAll(fileInSP);
-        fileInBranch.removeAll(fileInSP);
-        for (String s : fileInBranch) {
-            if (!fileInCurB.contains(s)) {
-                checkoutFileWithCommit(branch, s);
-                add("add", s);
-            } else if (!branchMap.get(s).equals(curMap.get(s))) {
-                writeConflict(s, curMap.get(s), branchMap.get(s));
-                isConflict = true;
-            }
+        writeWorkingFiles(writes);
+        for (Map.Entry<String, String> e : writes.entrySet()) {
+            new MyMap(e.getKey(), e.getValue()).saveMyMap();
+            unmarkRemove(e.getKey());
         }
         commitHelper(String.format("Merged %s into %s.",
                 branchName, getCurBranch()),
@@ -383,8 +460,7 @@ public class Main {
         if (args.length != 2) {
             exitWithError("Incorrect operands.");
         }
-        if (getStageFolder().listFiles().length != 0
-                || getRemoveFolder().listFiles().length != 0) {
+        if (!stageEmpty()) {
             exitWithError("You have uncommitted changes.");
         }
         String branchName = args[1];
@@ -413,6 +489,7 @@ public class Main {
      * Write conflict in FILENAME and stage that change.
      * If file in head or branch is deleted, then the input String
      * would be null and write "".
+     * Both sides are streamed straight from their blobs.
      *
      * @param headBlob head's blob's hash
      * @param branchBlob branch's blob's hash
@@ -420,16 +497,21 @@ public class Main {
      */
     private static void writeConflict(String fileName,
                                       String headBlob, String branchBlob) {
-        String h = "";
-        if (headBlob != null) {
-            h = readBlob(headBlob).content();
-        }
-        String b = "";
-        if (branchBlob != null) {
-            b = readBlob(branchBlob).content();
+        File file = workingFile(fileName);
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE)) {
+            out.write(CONFLICT_START.getBytes(StandardCharsets.UTF_8));
+            if (headBlob != null) {
+                readBlob(headBlob).writeTo(out);
+            }
+            out.write(CONFLICT_MID.getBytes(StandardCharsets.UTF_8));
+            if (branchBlob != null) {
+                readBlob(branchBlob).writeTo(out);
+            }
+            out.write(CONFLICT_END.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        writeContents(join(cwd, fileName),
-                String.format(CONFLICT, h, b));
         add("add", fileName);
     }
 
@@ -510,50 +592,71 @@ public class Main {
         getCommitFolder().mkdir();
         getBranchFolder().mkdir();
         getBlobFolder().mkdir();
-        getStageFolder().mkdir();
-        getRemoveFolder().mkdir();
+        Tree.getTreeFolder().mkdir();
         REMOTE_FOLDER.mkdir();
         Commit init = new Commit();
         init.saveCommit();
+        CommitGraph.add(init.commitSHA());
+        MessageIndex.add(init);
+        CommitCatalog.add(init);
         setHEAD(init);
         saveHEAD();
         forwardBranch();
     }
 
     /**
-     * Add a MyMap to log folder.
+     * Stage the given files, or every working file under the given
+     * directories, "." being the whole working directory.
+     * Files are hashed, then their new blobs saved, in parallel;
+     * the staging area is updated once all blobs are saved.
      *
-     * @param args add filename
+     * @param args add filename or directory...
      */
     public static void add(String... args) {
-        if (args.length != 2) {
+        if (args.length < 2) {
             exitWithError("Incorrect operands.");
         }
-        String fileName = args[1];
-        File readIn = join(cwd, fileName);
-        if (!readIn.exists()) {
-            exitWithError("File does not exist.");
+        TreeSet<String> fileNames = new TreeSet<>();
+        for (int k = 1; k < args.length; k += 1) {
+            String path = WorkingTree.normalize(args[k]);
+            if (join(cwd, path).isDirectory()) {
+                fileNames.addAll(WorkingTree.filesUnder(path));
+            } else if (join(cwd, path).exists()) {
+                fileNames.add(path);
+            } else {
+                exitWithError("File does not exist.");
+            }
         }
         readHEAD(false);
         Commit head = getHead();
-        if (head.allMap().containsKey(fileName)) {
-            Blob blob = new Blob(fileName);
-            if (!head.allMap().get(fileName).equals(blob.blobSHA())) {
-                blob.saveBlob();
-                MyMap myMap = new MyMap(fileName, blob.blobSHA());
-                myMap.saveMyMap();
-            } else {
-                MyMap.removeFile(fileName);
+        List<String> names = new ArrayList<>(fileNames);
+        List<Blob> blobs = Parallel.map(names, Blob::new, Parallel.THREADS);
+        Map<String, Blob> unsaved = new LinkedHashMap<>();
+        Map<String, String> bases = new HashMap<>();
+        for (int i = 0; i < names.size(); i += 1) {
+            Blob blob = blobs.get(i);
+            if (blob.empty()) {
+                exitWithError("File does not exist.");
+            }
+            String tracked = head.blobOf(names.get(i));
+            if (!blob.blobSHA().equals(tracked)
+                    && unsaved.putIfAbsent(blob.blobSHA(), blob) == null) {
+                bases.put(blob.blobSHA(), tracked);
             }
-        } else {
-            Blob blob = new Blob(fileName);
-            blob.saveBlob();
-            MyMap myMap = new MyMap(fileName, blob.blobSHA());
-            myMap.saveMyMap();
         }
-        List<String> markedRemove = plainFilenamesIn(getRemoveFolder());
-        if (markedRemove.contains(fileName)) {
-            join(getRemoveFolder(), fileName).delete();
+        Parallel.map(new ArrayList<>(unsaved.values()), blob -> {
+            blob.saveBlob(bases.get(blob.blobSHA()));
+            return null;
+        }, Parallel.THREADS);
+        for (int i = 0; i < names.size(); i += 1) {
+            String fileName = names.get(i);
+            String hash = blobs.get(i).blobSHA();
+            if (hash.equals(head.blobOf(fileName))) {
+                MyMap.removeFile(fileName);
+            } else {
+                new MyMap(fileName, hash).saveMyMap();
+            }
+            unmarkRemove(fileName);
         }
     }
 
@@ -582,26 +685,23 @@ public class Main {
      * @param secondParent the commit's secondParent's hash
      */
     private static void commitHelper(String log, String secondParent) {
-        File[] listOfChanges = getStageFolder().listFiles();
-        List<String> markedRemove = plainFilenamesIn(getRemoveFolder());
-        if (listOfChanges.length == 0
-                && markedRemove.size() == 0) {
+        if (stageEmpty()) {
             exitWithError("No changes added to the commit.");
         }
         readHEAD(true);
         Commit commit = new Commit(getHead(), log);
-        for (int i = 0; i < listOfChanges.length; i += 1) {
-            MyMap myMap = readObject(listOfChanges[i], MyMap.class);
-            commit.allMap().put((String) myMap.getKey(),
-                    (String) myMap.getValue());
-            listOfChanges[i].delete();
+        for (Map.Entry<String, String> e : getStaged().entrySet()) {
+            commit.put(e.getKey(), e.getValue());
         }
-        for (String s : markedRemove) {
-            commit.allMap().remove(s);
-            join(getRemoveFolder(), s).delete();
+        for (String s : getRemoved()) {
+            commit.remove(s);
         }
+        clearStage();
         commit.setSecondParentHash(secondParent);
         commit.saveCommit();
+        CommitGraph.add(commit.commitSHA());
+        MessageIndex.add(commit);
+        CommitCatalog.add(commit);
         setHEAD(commit);
         saveHEAD();
         forwardBranch();
@@ -617,44 +717,85 @@ public class Main {
         if (args.length != 2) {
             exitWithError("Incorrect operands.");
         }
-        String fileName = args[1];
-        File staged = join(getStageFolder(), sha1(fileName));
+        String fileName = WorkingTree.normalize(args[1]);
         readHEAD(false);
-        Boolean isStaged = false;
-        if (staged.exists()) {
-            staged.delete();
-            isStaged = true;
-        }
-        if (getHead().allMap().containsKey(fileName)) {
+        boolean isStaged = MyMap.removeFile(fileName);
+        if (getHead().tracks(fileName)) {
             markRemove(fileName);
-            File file = join(cwd, fileName);
-            if (file.exists()) {
-                file.delete();
-            }
+            WorkingTree.delete(fileName);
         } else if (!isStaged) {
             exitWithError("No reason to remove the file.");
         }
     }
 
     /**
-     * Print log of commits backward to initial.
+     * Print log of commits backward to initial, through one
+     * buffered writer.  Stops after --max-count commits, or at the
+     * first commit made before --since, which is checked in the
+     * commit graph without reading the commit.
      *
-     * @param args log
+     * @param args log [--max-count N] [--since DATE] [--oneline]
      */
     public static void log(String... args) {
-        if (args.length != 1) {
-            exitWithError("Incorrect operands.");
+        long maxCount = Long.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        boolean oneline = false;
+        for (int k = 1; k < args.length; k += 1) {
+            if (args[k].equals("--oneline")) {
+                oneline = true;
+            } else if (args[k].equals("--max-count") && k + 1 < args.length
+                    && args[k + 1].matches("\\d+")) {
+                k += 1;
+                maxCount = Long.parseLong(args[k]);
+            } else if (args[k].equals("--since") && k + 1 < args.length) {
+                k += 1;
+                since = parseDate(args[k]);
+            } else {
+                exitWithError("Incorrect operands.");
+            }
         }
         readHEAD(false);
-        Commit tmp = getHead();
-        while (tmp != null) {
-            tmp.printLog();
-            tmp = tmp.getFirstParent();
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), BUFFER_SIZE));
+        int i = CommitGraph.index(getHead().commitSHA());
+        for (long n = 0; i != -1 && n < maxCount
+                && CommitGraph.time(i) >= since; n += 1) {
+            Commit commit = readCommit(CommitGraph.id(i));
+            if (oneline) {
+                commit.printOneline(out);
+            } else {
+                commit.printLog(out);
+            }
+            i = CommitGraph.parent1(i);
+        }
+        out.flush();
+    }
+
+    /**
+     * Return the time DATE stands for, in milliseconds since the
+     * epoch.  DATE is either yyyy-MM-dd or yyyy-MM-dd HH:mm:ss, in
+     * the local time zone.
+     *
+     * @param date the date to parse
+     */
+    private static long parseDate(String date) {
+        for (String pattern : new String[] {"yyyy-MM-dd HH:mm:ss",
+                                            "yyyy-MM-dd"}) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            ParsePosition pos = new ParsePosition(0);
+            Date d = format.parse(date, pos);
+            if (d != null && pos.getIndex() == date.length()) {
+                return d.getTime();
+            }
         }
+        exitWithError("Incorrect operands.");
+        return 0;
     }
 
     /**
-     * Print log of all commits in commitFolder.
+     * Print log of all commits, loose or packed,
+     * from the commit catalog.
      *
      * @param args global-log
      */
@@ -662,39 +803,30 @@ public class Main {
         if (args.length != 1) {
             exitWithError("Incorrect operands.");
         }
-        File[] folders = getCommitFolder().listFiles();
-        for (int i = 0; i < folders.length; i += 1) {
-            File[] commitFiles = folders[i].listFiles();
-            for (int j = 0; j < commitFiles.length; j += 1) {
-                readObject(commitFiles[j], Commit.class).printLog();
-            }
-        }
+        CommitCatalog.printAll();
     }
 
     /**
-     * Find log message in commitFolder.
+     * Find log message in all commits, loose or packed,
+     * through the message index.
      *
-     * @param args find msg
+     * @param args find msg, or find --grep text
      */
     public static void find(String... args) {
-        if (args.length != 2) {
+        List<String> found = null;
+        if (args.length == 2) {
+            found = MessageIndex.find(args[1]);
+        } else if (args.length == 3 && args[1].equals("--grep")) {
+            found = MessageIndex.grep(args[2]);
+        } else {
             exitWithError("Incorrect operands.");
         }
-        Boolean found = false;
-        File[] folders = getCommitFolder().listFiles();
-        for (int i = 0; i < folders.length; i += 1) {
-            File[] commitFiles = folders[i].listFiles();
-            for (int j = 0; j < commitFiles.length; j += 1) {
-                Commit commit = readObject(commitFiles[j], Commit.class);
-                if (commit.log().equals(args[1])) {
-                    found = true;
-                    System.out.println(commit.commitSHA());
-                }
-            }
-        }
-        if (!found) {
+        if (found.isEmpty()) {
             exitWithError("Found no commit with that message.");
         }
+        for (String id : found) {
+            System.out.println(id);
+        }
     }
 
     /**
@@ -704,24 +836,16 @@ public class Main {
      */
     public static void status(String[] args) {
         statusOfBranches(args);
-        List<File> listOfFileStaged =
-                Arrays.asList(getStageFolder().listFiles());
-        HashMap<String, String> mapOfStaged = new HashMap<>();
-        ArrayList<String> stagedFileName = new ArrayList<>();
-        for (File file : listOfFileStaged) {
-            MyMap myMap = readObject(file, MyMap.class);
-            mapOfStaged.put((String) myMap.getKey(), (String) myMap.getValue());
-            stagedFileName.add((String) myMap.getKey());
-        }
-        Collections.sort(stagedFileName);
-        for (String s : stagedFileName) {
+        Map<String, String> mapOfStaged = getStaged();
+        for (String s : mapOfStaged.keySet()) {
             System.out.println(s);
         }
         System.out.println();
-        List<String> removedFileName = showRemoved();
+        Set<String> removedFileName = showRemoved();
         Commit head = getHead();
         HashSet<String> trackedFileName = new HashSet<>(head.allMap().keySet());
-        List<String> listOfPlainFile = plainFilenamesIn(cwd);
+        Set<String> listOfPlainFile = workingFiles(trackedFileName,
+                mapOfStaged.keySet());
         ArrayList<String> mod = new ArrayList<>();
         ArrayList<String> untracked = new ArrayList<>();
         System.out.println("=== Modifications Not Staged For Commit ===");
@@ -762,14 +886,37 @@ public class Main {
         showModUntracked(mod, untracked);
     }
 
+    /**
+     * Return the files in the working directory: those the scan
+     * found, and those of TRACKED and STAGED that exist, though the
+     * scan left them out as ignored.
+     *
+     * @param tracked the files tracked by the head commit.
+     * @param staged the files staged for addition.
+     * @return the names of the working files.
+     */
+    private static Set<String> workingFiles(Set<String> tracked,
+                                            Set<String> staged) {
+        Set<String> scanned = WorkingTree.files();
+        Set<String> res = new HashSet<>(scanned);
+        for (Set<String> known : List.of(tracked, staged)) {
+            for (String s : known) {
+                if (!scanned.contains(s) && join(cwd, s).isFile()) {
+                    res.add(s);
+                }
+            }
+        }
+        return res;
+    }
+
     /**
      * Show removed files.
      *
-     * @return the list of removed files.
+     * @return the set of removed files.
      * */
-    private static List<String> showRemoved() {
+    private static Set<String> showRemoved() {
         System.out.println("=== Removed Files ===");
-        List<String> removedFileName = plainFilenamesIn(getRemoveFolder());
+        Set<String> removedFileName = getRemoved();
         for (String s : removedFileName) {
             System.out.println(s);
         }
@@ -870,24 +1017,35 @@ public class Main {
      * Checkout all files in COMMIT and clear stage.
      * CHECK whether untracked working files would be overwritten or not.
      * Suppose that HEAD has been read.
-     * Also set head and curBranch to that commit.
+     * Only the files that differ between HEAD and COMMIT, and the
+     * working files that no longer match HEAD, are written or deleted;
+     * the others are left untouched.
      */
     private static void checkoutCommit(Commit commit) {
-
-        List<String> allFiles = plainFilenamesIn(cwd);
-        Set<String> checkoutFiles = commit.allMap().keySet();
-        Set<String> trackedFiles = getHead().allMap().keySet();
-        checkOverwriteUntracked(trackedFiles, checkoutFiles, allFiles);
-        trackedFiles.removeAll(checkoutFiles);
-        for (String s : trackedFiles) {
-            join(cwd, s).delete();
+        TreeMap<String, String[]> diff = getHead().diff(commit);
+        for (Map.Entry<String, String[]> e : diff.entrySet()) {
+            if (e.getValue()[0] == null
+                    && WorkingTree.files().contains(e.getKey())) {
+                exitWithError("There is an untracked file "
+                        + "in the way; delete it or add it first.");
+            }
         }
-        for (String s : checkoutFiles) {
-            checkoutFileWithCommit(commit, s);
+        Map<String, String> writes = new TreeMap<>();
+        for (Map.Entry<String, String[]> e : diff.entrySet()) {
+            if (e.getValue()[1] == null) {
+                WorkingTree.delete(e.getKey());
+            } else {
+                writes.put(e.getKey(), e.getValue()[1]);
+            }
         }
+        for (Map.Entry<String, String> e : commit.allMap().entrySet()) {
+            if (!diff.containsKey(e.getKey())
+                    && !e.getValue().equals(StatCache.hash(e.getKey()))) {
+                writes.put(e.getKey(), e.getValue());
+            }
+        }
+        writeWorkingFiles(writes);
         clearStage();
-
-
     }
 
 
@@ -928,12 +1086,53 @@ public class Main {
      * @param fileName The file name.
      */
     private static void checkoutFileWithCommit(Commit commit, String fileName) {
-        if (!commit.allMap().containsKey(fileName)) {
+        String blobHash = commit.blobOf(fileName);
+        if (blobHash == null) {
             exitWithError("File does not exist in that commit.");
         }
-        String blobHash = commit.allMap().get(fileName);
-        Blob blob = Blob.readBlob(blobHash);
-        writeContents(join(cwd, fileName), blob.content());
+        writeWorkingFile(fileName, blobHash);
+    }
+
+    /**
+     * Write the blob of each of the working files in WRITES, several
+     * at once.  Should some fail, the error of the first in order is
+     * reported once all are done.
+     *
+     * @param writes the blob to write to each file, by file name.
+     */
+    private static void writeWorkingFiles(Map<String, String> writes) {
+        Parallel.map(new ArrayList<>(writes.entrySet()), e -> {
+            writeWorkingFile(e.getKey(), e.getValue());
+            return null;
+        }, Parallel.IO_THREADS);
+    }
+
+    /**
+     * Write the blob BLOBHASH to the working file FILENAME, and
+     * record it in the stat cache so it is not hashed again.
+     *
+     * @param fileName The file name.
+     * @param blobHash The blob's hash.
+     */
+    private static void writeWorkingFile(String fileName, String blobHash) {
+        Blob.readBlob(blobHash).writeTo(workingFile(fileName));
+        StatCache.record(fileName, blobHash);
+    }
+
+    /**
+     * Return the working file FILENAME, creating the directories
+     * holding it if needed.
+     *
+     * @param fileName The file name.
+     */
+    private static File workingFile(String fileName) {
+        File file = join(cwd, fileName);
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return file;
     }
 
     /**
@@ -957,7 +1156,7 @@ public class Main {
      */
     private static void checkOverwriteUntracked(Set<String> curBranch,
                                                 Set<String> checkout,
-                                                List<String> working) {
+                                                Set<String> working) {
         for (String s : checkout) {
             if (!curBranch.contains(s) && working.contains(s)) {
                 exitWithError("There is an untracked file "
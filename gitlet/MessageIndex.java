@@ -0,0 +1,390 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+import static gitlet.Main.*;
+
+/**
+ * An index of commits by log message, for find.
+ * <p>
+ * Each commit is indexed under a key for its whole message and,
+ * unless run with -Dgitlet.ngramIndex=false, under a key for each
+ * distinct three-character substring of it, so that substrings can
+ * be looked up too.  Keys are the first 8 bytes of the SHA of "m"
+ * and the message, or of "g" and the substring; matches are checked
+ * against the commits' messages, so key collisions do no harm.
+ * <p>
+ * File: "MIDX" VERSION FLAGS SORTED, then records
+ * KEY(8 bytes) ID(20 bytes).  The first SORTED records are sorted
+ * by key and searched by binary search; the others were appended
+ * since, and are sorted in when they grow to a quarter of those.
+ * FLAGS is NGRAMS if substrings are indexed.  The index is built
+ * from all commits when missing.
+ *
+ * @author Ang Wang
+ */
+class MessageIndex {
+
+    /**
+     * Magic number opening the file, "MIDX".
+     */
+    private static final int MAGIC = 0x4d494458;
+
+    /**
+     * Current format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Flag of an index of substrings as well as messages.
+     */
+    private static final int NGRAMS = 1;
+
+    /**
+     * Whether new indices include substrings.
+     */
+    private static final boolean INDEX_NGRAMS = Boolean.parseBoolean(
+            System.getProperty("gitlet.ngramIndex", "true"));
+
+    /**
+     * Length of the indexed substrings.
+     */
+    private static final int N = 3;
+
+    /**
+     * Size of the file header.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Size of a record.
+     */
+    private static final int RECORD_SIZE = 8 + 20;
+
+    /**
+     * Fewest unsorted records worth sorting in.
+     */
+    private static final int MIN_MERGE = 1024;
+
+    /**
+     * File storing the index.
+     */
+    private static File indexFile = join(getMainFolder(), "message-index");
+
+    /**
+     * Set current working directory to REMOTE.
+     *
+     * @param remote .../.gitlet
+     * */
+    static void setUpIndex(File remote) {
+        indexFile = join(remote, "message-index");
+        sorted = null;
+        appended = null;
+        indexed = null;
+    }
+
+    /**
+     * Return the ids of the commits whose message is MESSAGE,
+     * in order.
+     *
+     * @param message a log message
+     */
+    static List<String> find(String message) {
+        load();
+        List<String> res = new ArrayList<>();
+        for (String id : new TreeSet<>(lookup(key("m", message)))) {
+            if (Commit.readCommit(id).log().equals(message)) {
+                res.add(id);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Return the ids of the commits whose message contains TEXT,
+     * in order.  Unless TEXT is too short or substrings are not
+     * indexed, only the commits having all substrings of TEXT in
+     * the index are read.
+     *
+     * @param text part of a log message
+     */
+    static List<String> grep(String text) {
+        load();
+        Set<String> candidates = null;
+        if ((flags & NGRAMS) != 0 && text.length() >= N) {
+            for (String gram : grams(text)) {
+                Set<String> ids = new HashSet<>(lookup(key("g", gram)));
+                if (candidates != null) {
+                    ids.retainAll(candidates);
+                }
+                candidates = ids;
+            }
+        } else {
+            candidates = new HashSet<>(Commit.commitIds());
+        }
+        List<String> res = new ArrayList<>();
+        for (String id : new TreeSet<>(candidates)) {
+            if (Commit.readCommit(id).log().contains(text)) {
+                res.add(id);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Index the commit C, unless it is already indexed.
+     *
+     * @param c a saved commit
+     */
+    static void add(Commit c) {
+        load();
+        if (indexed.contains(c.commitSHA())
+                || lookupSorted(key("m", c.log())).contains(c.commitSHA())) {
+            return;
+        }
+        List<byte[]> records = records(c);
+        try (FileChannel out = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            long end = HEADER_SIZE
+                    + (long) (count + appended.size()) * RECORD_SIZE;
+            out.truncate(end);
+            for (byte[] r : records) {
+                out.write(ByteBuffer.wrap(r), end);
+                end += RECORD_SIZE;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        appended.addAll(records);
+        indexed.add(c.commitSHA());
+        if (appended.size() > Math.max(MIN_MERGE, count / 4)) {
+            List<byte[]> all = new ArrayList<>(appended);
+            for (int i = 0; i < count; i += 1) {
+                byte[] r = new byte[RECORD_SIZE];
+                sorted.get(HEADER_SIZE + i * RECORD_SIZE, r);
+                all.add(r);
+            }
+            write(all, flags);
+            sorted = null;
+        }
+    }
+
+    /**
+     * Read the index file if not read yet, building it first
+     * if it is missing.
+     */
+    private static void load() {
+        if (sorted != null) {
+            return;
+        }
+        if (!indexFile.exists()) {
+            List<byte[]> all = new ArrayList<>();
+            int f = INDEX_NGRAMS ? NGRAMS : 0;
+            flags = f;
+            for (String id : Commit.commitIds()) {
+                all.addAll(records(Commit.readCommit(id)));
+            }
+            write(all, f);
+        }
+        try (FileChannel in = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.READ)) {
+            sorted = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (sorted.getInt(0) != MAGIC || sorted.getInt(4) > VERSION) {
+            throw error("Message index %s is corrupted.", indexFile);
+        }
+        flags = sorted.getInt(8);
+        count = sorted.getInt(12);
+        appended = new ArrayList<>();
+        indexed = new HashSet<>();
+        long total = (sorted.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        for (long i = count; i < total; i += 1) {
+            byte[] r = new byte[RECORD_SIZE];
+            sorted.get((int) (HEADER_SIZE + i * RECORD_SIZE), r);
+            appended.add(r);
+            indexed.add(id(r));
+        }
+    }
+
+    /**
+     * Write RECORDS, sorted, as the whole index with flags F,
+     * replacing the file at once.
+     */
+    private static void write(List<byte[]> records, int f) {
+        records.sort(MessageIndex::compare);
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), BUFFER_SIZE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(f)
+                    .putInt(records.size());
+            out.write(header.array());
+            for (byte[] r : records) {
+                out.write(r);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the ids of the records with key KEY.
+     */
+    private static List<String> lookup(byte[] key) {
+        List<String> res = lookupSorted(key);
+        for (byte[] a : appended) {
+            if (compare(a, key) == 0) {
+                res.add(id(a));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Return the ids of the sorted records with key KEY.
+     */
+    private static List<String> lookupSorted(byte[] key) {
+        List<String> res = new ArrayList<>();
+        byte[] r = new byte[RECORD_SIZE];
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            sorted.get(HEADER_SIZE + mid * RECORD_SIZE, r);
+            if (compare(r, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count; i += 1) {
+            sorted.get(HEADER_SIZE + i * RECORD_SIZE, r);
+            if (compare(r, key) != 0) {
+                break;
+            }
+            res.add(id(r));
+        }
+        return res;
+    }
+
+    /**
+     * Return the records indexing commit C.
+     */
+    private static List<byte[]> records(Commit c) {
+        List<byte[]> res = new ArrayList<>();
+        String id = c.commitSHA();
+        res.add(record(key("m", c.log()), id));
+        if ((flags & NGRAMS) != 0) {
+            for (String gram : grams(c.log())) {
+                res.add(record(key("g", gram), id));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Return the distinct substrings of length N of TEXT.
+     */
+    private static Set<String> grams(String text) {
+        Set<String> res = new HashSet<>();
+        for (int i = 0; i + N <= text.length(); i += 1) {
+            res.add(text.substring(i, i + N));
+        }
+        return res;
+    }
+
+    /**
+     * Return the key of TEXT of kind KIND.
+     */
+    private static byte[] key(String kind, String text) {
+        byte[] key = new byte[8];
+        String hash = sha1(kind, text);
+        for (int k = 0; k < key.length; k += 1) {
+            key[k] = (byte) Integer.parseInt(hash.substring(2 * k,
+                    2 * k + 2), 16);
+        }
+        return key;
+    }
+
+    /**
+     * Return the record of KEY for the commit ID.
+     */
+    private static byte[] record(byte[] key, String id) {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        buf.put(key);
+        for (int k = 0; k < UID_LENGTH; k += 2) {
+            buf.put((byte) Integer.parseInt(id.substring(k, k + 2), 16));
+        }
+        return buf.array();
+    }
+
+    /**
+     * Return the id in record R.
+     */
+    private static String id(byte[] r) {
+        return toHex(Arrays.copyOfRange(r, 8, RECORD_SIZE));
+    }
+
+    /**
+     * Compare the keys at the start of A and B, as unsigned bytes.
+     */
+    private static int compare(byte[] a, byte[] b) {
+        for (int k = 0; k < 8; k += 1) {
+            int d = (a[k] & 0xff) - (b[k] & 0xff);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The index file, mapped. NULL until loaded.
+     */
+    private static MappedByteBuffer sorted;
+
+    /**
+     * Flags of the index.
+     */
+    private static int flags;
+
+    /**
+     * Number of sorted records.
+     */
+    private static int count;
+
+    /**
+     * Records appended after the sorted ones.
+     */
+    private static List<byte[]> appended;
+
+    /**
+     * Ids of the commits indexed by the appended records.
+     */
+    private static Set<String> indexed;
+}
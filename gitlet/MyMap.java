@@ -1,8 +1,21 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import static gitlet.Utils.*;
 
@@ -13,43 +26,69 @@ import static gitlet.Utils.*;
  */
 
 public class MyMap implements Serializable, Map.Entry {
+
     /**
-     * Directory for storing staging .
-     * Name : File Name' SHA.
-     * Content : MyMap Object.
+     * Fixed so that staging left by earlier versions,
+     * which is serialized MyMap objects, can still be read.
      */
-    private static File stageFolder = join(Main.getMainFolder(), "stage");
+    private static final long serialVersionUID = -739788710500262217L;
 
     /**
-     * Get stageFolder.
-     * @return stageFolder
+     * Magic number opening the staging index, "STGE".
      */
-    public static File getStageFolder() {
-        return stageFolder;
-    }
+    private static final int MAGIC = 0x53544745;
 
     /**
-     * Directory for storing staging.
-     * Name : File Name.
-     * Content : remove.
+     * Current format version.
      */
-    private static File removeFolder = join(Main.getMainFolder(), "removal");
+    private static final int VERSION = 1;
 
     /**
-     * Get removeFolder.
-     * @return removeFolder
+     * Kind of a staged addition.
      */
-    public static File getRemoveFolder() {
-        return removeFolder;
-    }
+    private static final byte ADDED = 'a';
+
+    /**
+     * Kind of a staged removal.
+     */
+    private static final byte REMOVED = 'r';
+
+    /**
+     * File storing the staging area, additions and removals alike.
+     * "STGE" VERSION, then one record per file, sorted by name:
+     * KIND(ADDED or REMOVED) NAME(UTF), and for an addition
+     * BLOB(20 bytes).
+     * The staging area is edited in memory and written at once
+     * by saveStage.
+     */
+    private static File stageFile = join(Main.getMainFolder(), "staging");
+
+    /**
+     * Directory where earlier versions stored staging, one
+     * MyMap object per file named by the file name's SHA.
+     * Read once into the staging index, then deleted.
+     */
+    private static File stageFolder = join(Main.getMainFolder(), "stage");
 
     /**
-     * Set current working directory to REMOTE.
+     * Directory where earlier versions stored removals, one
+     * file per file name.
+     * Read once into the staging index, then deleted.
+     */
+    private static File removeFolder = join(Main.getMainFolder(), "removal");
+
+    /**
+     * Set current working directory to REMOTE, saving the staging
+     * area of the previous one first.
      * @param remote .../.gitlet
      * */
     public static void setUpStages(File remote) {
+        saveStage();
+        stageFile = join(remote, "staging");
         stageFolder = join(remote, "stage");
         removeFolder = join(remote, "removal");
+        staged = null;
+        removed = null;
     }
 
     /**
@@ -65,51 +104,210 @@ public class MyMap implements Serializable, Map.Entry {
     }
 
     /**
-     * Store this MyMap in stage folder
-     * if exists the same name then overwrite.
+     * Stage this MyMap,
+     * replacing what is staged under the same name.
      */
     public void saveMyMap() {
-        writeObject(join(stageFolder, sha1(_fileName)), this);
+        loadStage();
+        staged.put(_fileName, _blobHash);
+        dirty = true;
     }
 
     /**
-     * Remove the staged MyMap file
-     * iff the MyMap file mapping from FILENAME to a blob exists.
-     * If exist, also remove that blob.
+     * Unstage FILENAME iff it is staged for addition, and return
+     * whether it was.
+     * The blob itself is kept: blobs are saved once and shared,
+     * so some commit may still refer to it.
      */
-    public static void removeFile(String fileName) {
-        File file = join(stageFolder, sha1(fileName));
-        if (!file.exists()) {
-            return;
+    public static boolean removeFile(String fileName) {
+        loadStage();
+        if (staged.remove(fileName) == null) {
+            return false;
         }
-        MyMap myMap = readObject(file, MyMap.class);
-        File blob = join(Blob.getBlobFolder(), myMap._blobHash.substring(0, 2));
-        blob = join(blob, myMap._blobHash.substring(2));
-        blob.delete();
-        file.delete();
+        dirty = true;
+        return true;
     }
 
     /**
      * Mark FILENAME to be removed in next commit.
      */
     public static void markRemove(String fileName) {
-        writeContents(join(removeFolder, fileName), "remove");
+        loadStage();
+        dirty |= removed.add(fileName);
+    }
+
+    /**
+     * Unmark FILENAME to be removed in next commit.
+     */
+    public static void unmarkRemove(String fileName) {
+        loadStage();
+        dirty |= removed.remove(fileName);
     }
 
     /**
      * Clear stagin area (including removal).
      */
     public static void clearStage() {
+        loadStage();
+        dirty |= !staged.isEmpty() || !removed.isEmpty();
+        staged.clear();
+        removed.clear();
+    }
+
+    /**
+     * Return the blob staged for each file, by file name.
+     */
+    public static SortedMap<String, String> getStaged() {
+        loadStage();
+        return Collections.unmodifiableSortedMap(staged);
+    }
+
+    /**
+     * Return the names of the files marked to be removed.
+     */
+    public static SortedSet<String> getRemoved() {
+        loadStage();
+        return Collections.unmodifiableSortedSet(removed);
+    }
+
+    /**
+     * Return whether nothing is staged, for addition or removal.
+     */
+    public static boolean stageEmpty() {
+        loadStage();
+        return staged.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * Write the staging area if it changed, replacing the file
+     * at once, and delete what earlier versions left of it.
+     */
+    public static void saveStage() {
+        if (!dirty) {
+            return;
+        }
+        File tmp = new File(stageFile.getPath() + ".tmp");
+        TreeMap<String, String> all = new TreeMap<>(staged);
+        for (String s : removed) {
+            all.put(s, null);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        tmp.toPath()), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<String, String> e : all.entrySet()) {
+                String blob = e.getValue();
+                out.writeByte(blob == null ? REMOVED : ADDED);
+                out.writeUTF(e.getKey());
+                if (blob != null) {
+                    for (int k = 0; k < UID_LENGTH; k += 2) {
+                        out.writeByte(Integer.parseInt(
+                                blob.substring(k, k + 2), 16));
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), stageFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        deleteFolder(stageFolder);
+        deleteFolder(removeFolder);
+        dirty = false;
+    }
+
+    /**
+     * Read the staging area if not read yet, from the staging
+     * index or, if there is none, from what earlier versions left.
+     */
+    private static void loadStage() {
+        if (staged != null) {
+            return;
+        }
+        staged = new TreeMap<>();
+        removed = new TreeSet<>();
+        if (!stageFile.exists()) {
+            loadFolders();
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(
+                        stageFile.toPath()), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() > VERSION) {
+                throw error("Staging index %s is corrupted.", stageFile);
+            }
+            byte[] id = new byte[UID_LENGTH / 2];
+            while (true) {
+                byte kind = in.readByte();
+                String name = in.readUTF();
+                if (kind == REMOVED) {
+                    removed.add(name);
+                } else {
+                    in.readFully(id);
+                    staged.put(name, toHex(id));
+                }
+            }
+        } catch (EOFException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Read the staging area earlier versions left in stageFolder
+     * and removeFolder, if any.
+     */
+    private static void loadFolders() {
         File[] files = stageFolder.listFiles();
-        for (File f : files) {
-            f.delete();
+        if (files != null) {
+            for (File f : files) {
+                MyMap myMap = readObject(f, MyMap.class);
+                staged.put(myMap._fileName, myMap._blobHash);
+            }
+            dirty = true;
+        }
+        if (removeFolder.isDirectory()) {
+            removed.addAll(plainFilenamesIn(removeFolder));
+            dirty = true;
+        }
+    }
+
+    /**
+     * Delete FOLDER and the files in it, if it exists.
+     */
+    private static void deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
         }
-        files = removeFolder.listFiles();
         for (File f : files) {
             f.delete();
         }
+        folder.delete();
     }
 
+    /**
+     * Blob staged for each file, by file name. NULL until loaded.
+     */
+    private static TreeMap<String, String> staged;
+
+    /**
+     * Files marked to be removed. NULL until loaded.
+     */
+    private static TreeSet<String> removed;
+
+    /**
+     * Whether the staging area changed since loaded.
+     */
+    private static boolean dirty;
+
     @Override
     public boolean equals(Object anObject) {
         return (((MyMap) anObject)._blobHash.equals(_blobHash))
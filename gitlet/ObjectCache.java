@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A least-recently-used cache of objects read from disk, keyed by
+ * their ids and bounded by an estimate of the memory they take.
+ * Objects are immutable once saved, so entries never go stale, but
+ * the same id may be missing from another repository, so caches are
+ * emptied when switching to or from a remote.
+ * <p>
+ * Each cache holds at most CAPACITY bytes, set with
+ * -Dgitlet.cacheBytes.  Run with -Dgitlet.cacheStats=true to print
+ * the hits and misses of each cache when a command ends.
+ *
+ * @param <V> the type of objects cached
+ * @author Ang Wang
+ */
+class ObjectCache<V> {
+
+    /**
+     * Default bound of each cache, in bytes.
+     */
+    static final long CAPACITY = Long.getLong("gitlet.cacheBytes",
+            32L << 20);
+
+    /**
+     * Whether to print cache statistics.
+     */
+    static final boolean STATS = Boolean.getBoolean("gitlet.cacheStats");
+
+    /**
+     * A cache named NAME holding at most CAPACITY bytes.
+     *
+     * @param name     name used in statistics
+     * @param capacity bound in bytes
+     */
+    ObjectCache(String name, long capacity) {
+        _name = name;
+        _capacity = capacity;
+    }
+
+    /**
+     * Return the object ID, or null if it isn't cached.
+     *
+     * @param id the object's id
+     */
+    synchronized V get(String id) {
+        Entry<V> e = _entries.get(id);
+        if (e == null) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        return e._value;
+    }
+
+    /**
+     * Cache VALUE, which takes about WEIGHT bytes, as the object ID,
+     * evicting the least recently used objects to make room.  An
+     * object too big to cache is dropped, with any older entry.
+     *
+     * @param id     the object's id
+     * @param value  the object
+     * @param weight its estimated size in bytes
+     */
+    synchronized void put(String id, V value, long weight) {
+        if (weight > _capacity) {
+            Entry<V> old = _entries.remove(id);
+            if (old != null) {
+                _size -= old._weight;
+            }
+            return;
+        }
+        Entry<V> old = _entries.put(id, new Entry<>(value, weight));
+        if (old != null) {
+            _size -= old._weight;
+        }
+        _size += weight;
+        Iterator<Entry<V>> it = _entries.values().iterator();
+        while (_size > _capacity && it.hasNext()) {
+            _size -= it.next()._weight;
+            it.remove();
+        }
+    }
+
+    /**
+     * Empty the cache.
+     */
+    synchronized void clear() {
+        _entries.clear();
+        _size = 0;
+    }
+
+    /**
+     * Return the number of lookups that found their object.
+     */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /**
+     * Return the number of lookups that did not.
+     */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /**
+     * Return the estimated size of the cached objects in bytes.
+     */
+    synchronized long size() {
+        return _size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s cache: %d hits, %d misses, %d bytes",
+                _name, _hits, _misses, _size);
+    }
+
+    /**
+     * A cached object with its weight.
+     *
+     * @param <V> the type of objects cached
+     */
+    private static class Entry<V> {
+        /**
+         * An entry for VALUE of weight WEIGHT.
+         */
+        Entry(V value, long weight) {
+            _value = value;
+            _weight = weight;
+        }
+
+        /**
+         * The object.
+         */
+        private final V _value;
+
+        /**
+         * Its estimated size in bytes.
+         */
+        private final long _weight;
+    }
+
+    /**
+     * Name used in statistics.
+     */
+    private final String _name;
+
+    /**
+     * Bound on _size.
+     */
+    private final long _capacity;
+
+    /**
+     * Entries, from least to most recently used.
+     */
+    private final LinkedHashMap<String, Entry<V>> _entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Sum of the weights of the entries.
+     */
+    private long _size;
+
+    /**
+     * Number of lookups that found their object.
+     */
+    private long _hits;
+
+    /**
+     * Number of lookups that did not.
+     */
+    private long _misses;
+}
@@ -0,0 +1,656 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+import static gitlet.Main.*;
+
+/**
+ * A pack file holding many objects, with its index.
+ * <p>
+ * Pack file: "PACK" VERSION COUNT, then the objects as they are
+ * stored loose, one after another.
+ * Index file: "PIDX" VERSION COUNT, a fan-out table of 256 ints
+ * giving the number of objects whose first byte is at most i, then
+ * COUNT records sorted by id:
+ * ID(20 bytes) KIND(1 byte) OFFSET(8 bytes) SIZE(8 bytes),
+ * and from version 2 on a Bloom filter of the ids:
+ * NBITS(4 bytes) followed by NBITS bits.
+ * Index files are memory-mapped and searched in place; the Bloom
+ * filter answers most lookups of objects not in the pack without
+ * searching.
+ *
+ * @author Ang Wang
+ */
+class Pack {
+
+    /**
+     * Kind of a blob.
+     */
+    static final byte BLOB = 'b';
+
+    /**
+     * Kind of a commit.
+     */
+    static final byte COMMIT = 'c';
+
+    /**
+     * Kind of a tree.
+     */
+    static final byte TREE = 't';
+
+    /**
+     * Magic number opening a pack file, "PACK".
+     */
+    private static final int PACK_MAGIC = 0x5041434b;
+
+    /**
+     * Magic number opening an index file, "PIDX".
+     */
+    private static final int INDEX_MAGIC = 0x50494458;
+
+    /**
+     * Current pack file format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Current index format version.
+     */
+    private static final int INDEX_VERSION = 2;
+
+    /**
+     * Bits of Bloom filter per object.
+     */
+    private static final int BLOOM_BITS = 10;
+
+    /**
+     * Number of bits of the Bloom filter set for each object.
+     */
+    private static final int BLOOM_HASHES = 7;
+
+    /**
+     * Size of the pack and index file headers.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Position of the first index record.
+     */
+    private static final int RECORDS = HEADER_SIZE + 256 * 4;
+
+    /**
+     * Size of an index record.
+     */
+    private static final int RECORD_SIZE = 20 + 1 + 8 + 8;
+
+    /**
+     * Directory for storing packs.
+     * Name : pack-[SHA of its ids].pack and .idx
+     */
+    private static File packFolder = join(getMainFolder(), "packs");
+
+    /**
+     * Get packFolder.
+     *
+     * @return packFolder
+     */
+    static File getPackFolder() {
+        return packFolder;
+    }
+
+    /**
+     * Set current working directory to REMOTE.
+     *
+     * @param remote .../.gitlet
+     * */
+    static void setUpPacks(File remote) {
+        packFolder = join(remote, "packs");
+        packs = null;
+    }
+
+    /**
+     * Open the pack PACKFILE with index IDXFILE.
+     *
+     * @param packFile the pack file
+     * @param idxFile  its index
+     */
+    private Pack(File packFile, File idxFile) {
+        _packFile = packFile;
+        _idxFile = idxFile;
+        try (FileChannel in = FileChannel.open(idxFile.toPath(),
+                StandardOpenOption.READ)) {
+            _index = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_index.getInt(0) != INDEX_MAGIC
+                || _index.getInt(4) > INDEX_VERSION) {
+            throw error("Pack index %s is corrupted.", idxFile);
+        }
+        _count = _index.getInt(8);
+        _bloom = RECORDS + _count * RECORD_SIZE;
+        _bloomBits = _index.getInt(4) >= 2 ? _index.getInt(_bloom) : 0;
+    }
+
+    /**
+     * Return all packs in packFolder, opening them if needed.
+     */
+    private static synchronized List<Pack> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(packFolder);
+            if (names != null) {
+                for (String s : names) {
+                    if (s.endsWith(".idx")) {
+                        String base = s.substring(0, s.length() - 4);
+                        packs.add(new Pack(join(packFolder, base + ".pack"),
+                                join(packFolder, s)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Find the object of kind KIND whose id starts with HASH.
+     * If several do, return any of them.
+     *
+     * @param kind BLOB, COMMIT or TREE
+     * @param hash an id or a prefix of it
+     * @return the object or null if no pack has it
+     */
+    static RawObject find(byte kind, String hash) {
+        for (Pack p : packs()) {
+            int i = p.search(kind, hash);
+            if (i != -1) {
+                return p.object(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return whether some pack has the object of kind KIND
+     * whose id is HASH.
+     *
+     * @param kind BLOB, COMMIT or TREE
+     * @param hash a full id
+     */
+    static boolean contains(byte kind, String hash) {
+        for (Pack p : packs()) {
+            if (p.search(kind, hash) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add to RES the full ids of the objects of kind KIND whose ids
+     * start with PREFIX, until RES has LIMIT ids.  Each pack is
+     * searched by binary search.
+     *
+     * @param kind   BLOB or COMMIT
+     * @param prefix a prefix of an id
+     * @param limit  the most ids wanted
+     * @param res    the set of ids found so far
+     */
+    static void complete(byte kind, String prefix, int limit,
+                         Set<String> res) {
+        for (Pack p : packs()) {
+            for (int i = p.lowerBound(prefix);
+                 i < p._count && res.size() < limit
+                         && p.compare(i, prefix) == 0; i += 1) {
+                if (p.kind(i) == kind) {
+                    res.add(p.id(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the ids of all packed objects of kind KIND.
+     *
+     * @param kind BLOB or COMMIT
+     */
+    static List<String> ids(byte kind) {
+        List<String> res = new ArrayList<>();
+        for (Pack p : packs()) {
+            for (int i = 0; i < p._count; i += 1) {
+                if (p.kind(i) == kind) {
+                    res.add(p.id(i));
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Roll all loose blobs, commits and trees, and all existing packs,
+     * into a single new pack, then delete them.
+     * Blobs are saved as deltas against newer versions of the same
+     * file where that saves space.  Print the space the objects
+     * took on disk before and after, pack indices included.
+     */
+    static void packObjects() {
+        TreeMap<String, RawObject> objects = new TreeMap<>();
+        TreeMap<String, Byte> kinds = new TreeMap<>();
+        List<File> loose = new ArrayList<>();
+        for (Pack p : packs()) {
+            for (int i = 0; i < p._count; i += 1) {
+                objects.put(key(p.kind(i), p.id(i)), p.object(i));
+                kinds.put(key(p.kind(i), p.id(i)), p.kind(i));
+            }
+        }
+        collectLoose(Blob.getBlobFolder(), BLOB, objects, kinds, loose);
+        collectLoose(Commit.getCommitFolder(), COMMIT, objects, kinds,
+                loose);
+        collectLoose(Tree.getTreeFolder(), TREE, objects, kinds, loose);
+        if (objects.isEmpty() || (loose.isEmpty() && packs().size() < 2)) {
+            return;
+        }
+        if (!packFolder.exists()) {
+            packFolder.mkdir();
+        }
+        long before = 0;
+        for (File f : loose) {
+            before += f.length();
+        }
+        for (Pack p : packs()) {
+            before += p._packFile.length() + p._idxFile.length();
+        }
+        TreeMap<String, byte[]> encoded = new TreeMap<>();
+        int deltas = chooseDeltas(objects, kinds, encoded);
+        String name = "pack-" + sha1(String.join("", objects.keySet()));
+        File packFile = join(packFolder, name + ".pack");
+        File idxFile = join(packFolder, name + ".idx");
+        long[] offsets = new long[objects.size()];
+        long[] sizes = new long[objects.size()];
+        writePack(packFile, objects, encoded, offsets, sizes);
+        writeIndex(idxFile, kinds, offsets, sizes);
+        for (Pack p : packs()) {
+            if (!p._packFile.equals(packFile)) {
+                p._idxFile.delete();
+                p._packFile.delete();
+            }
+        }
+        for (File f : loose) {
+            f.delete();
+            f.getParentFile().delete();
+        }
+        packs = null;
+        long after = packFile.length() + idxFile.length();
+        message("Packed %d objects (%d deltas) into %d bytes on disk, "
+                + "from %d bytes.", objects.size(), deltas, after, before);
+    }
+
+    /**
+     * Choose how to save each blob among OBJECTS of kinds KINDS.
+     * The versions each commit tracks of a file are walked from
+     * newest to oldest, and each one is saved as a delta against the
+     * next newer one when that is worth it and the chain isn't too
+     * long, so recent versions are the fastest to read.
+     * Put the blobs whose saved form changes into ENCODED.
+     *
+     * @return the number of blobs saved as deltas.
+     */
+    private static int chooseDeltas(TreeMap<String, RawObject> objects,
+                                    TreeMap<String, Byte> kinds,
+                                    TreeMap<String, byte[]> encoded) {
+        TreeMap<String, HashMap<String, Long>> versions = new TreeMap<>();
+        for (String key : objects.keySet()) {
+            if (kinds.get(key) != COMMIT) {
+                continue;
+            }
+            Commit c = Commit.readCommit(id(key));
+            long time = c.time();
+            for (Map.Entry<String, String> e : c.allMap().entrySet()) {
+                versions.computeIfAbsent(e.getKey(), k -> new HashMap<>())
+                        .merge(e.getValue(), time, Math::max);
+            }
+        }
+        HashMap<String, Integer> depths = new HashMap<>();
+        int deltas = 0;
+        for (HashMap<String, Long> times : versions.values()) {
+            List<String> ids = new ArrayList<>(times.keySet());
+            ids.sort((a, b) -> times.get(a).equals(times.get(b))
+                    ? a.compareTo(b) : Long.compare(times.get(b),
+                    times.get(a)));
+            Blob prev = null;
+            for (String id : ids) {
+                Blob blob = Blob.readBlob(id);
+                if (blob == null) {
+                    continue;
+                }
+                if (!depths.containsKey(id)) {
+                    byte[] delta = prev == null ? null
+                            : blob.encodeDelta(prev,
+                                    depths.get(prev.blobSHA()));
+                    if (delta != null) {
+                        encoded.put(key(BLOB, id), delta);
+                        depths.put(id, depths.get(prev.blobSHA()) + 1);
+                        deltas += 1;
+                    } else {
+                        if (blob.isDelta()) {
+                            encoded.put(key(BLOB, id),
+                                    Blob.encodeWhole(blob.bytes()));
+                        }
+                        depths.put(id, 0);
+                    }
+                }
+                prev = blob;
+            }
+        }
+        for (String key : objects.keySet()) {
+            if (kinds.get(key) == BLOB && !depths.containsKey(id(key))
+                    && objects.get(key).type() == RawObject.DELTA) {
+                deltas += 1;
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Return the key of the object ID of kind KIND in the maps of
+     * packObjects, which sorts by id, then kind, so that objects of
+     * different kinds may share an id.
+     */
+    private static String key(byte kind, String id) {
+        return id + (char) kind;
+    }
+
+    /**
+     * Return the id of the object whose key is KEY.
+     */
+    private static String id(String key) {
+        return key.substring(0, UID_LENGTH);
+    }
+
+    /**
+     * Put all loose objects in FOLDER into OBJECTS and their kind KIND
+     * into KINDS, and their files into FILES, along with those left
+     * half written.
+     */
+    private static void collectLoose(File folder, byte kind,
+                                     TreeMap<String, RawObject> objects,
+                                     TreeMap<String, Byte> kinds,
+                                     List<File> files) {
+        List<String> fanOut = foldernamesIn(folder);
+        if (fanOut == null) {
+            return;
+        }
+        for (String dir : fanOut) {
+            for (String s : plainFilenamesIn(join(folder, dir))) {
+                File f = join(folder, dir, s);
+                files.add(f);
+                if (s.endsWith(RawObject.TMP_SUFFIX)) {
+                    continue;
+                }
+                objects.put(key(kind, dir + s), new RawObject(f));
+                kinds.put(key(kind, dir + s), kind);
+            }
+        }
+    }
+
+    /**
+     * Write OBJECTS, in order, to PACKFILE, taking the objects in
+     * ENCODED as they are encoded there instead.
+     * Fill OFFSETS and SIZES with the offset and size of each object.
+     */
+    private static void writePack(File packFile,
+                                  TreeMap<String, RawObject> objects,
+                                  TreeMap<String, byte[]> encoded,
+                                  long[] offsets, long[] sizes) {
+        File tmp = join(packFolder, packFile.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), BUFFER_SIZE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(PACK_MAGIC).putInt(VERSION).putInt(objects.size());
+            out.write(header.array());
+            long offset = HEADER_SIZE;
+            int i = 0;
+            for (Map.Entry<String, RawObject> e : objects.entrySet()) {
+                byte[] bytes = encoded.get(e.getKey());
+                if (bytes != null) {
+                    out.write(bytes);
+                    sizes[i] = bytes.length;
+                } else {
+                    e.getValue().copyRawTo(out);
+                    sizes[i] = e.getValue().size();
+                }
+                offsets[i] = offset;
+                offset += sizes[i];
+                i += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        moveInto(tmp, packFile);
+    }
+
+    /**
+     * Write the index of the objects of kinds KINDS, stored at OFFSETS
+     * with sizes SIZES, to IDXFILE.
+     */
+    private static void writeIndex(File idxFile, TreeMap<String, Byte> kinds,
+                                   long[] offsets, long[] sizes) {
+        int n = kinds.size();
+        int bloomBits = Math.max(n * BLOOM_BITS, 64);
+        ByteBuffer buf = ByteBuffer.allocate(RECORDS + n * RECORD_SIZE
+                + 4 + (bloomBits + 7) / 8);
+        buf.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putInt(n);
+        int[] fanOut = new int[256];
+        for (String key : kinds.keySet()) {
+            fanOut[Integer.parseInt(key.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b += 1) {
+            total += fanOut[b];
+            buf.putInt(total);
+        }
+        int i = 0;
+        for (Map.Entry<String, Byte> e : kinds.entrySet()) {
+            String id = id(e.getKey());
+            for (int k = 0; k < UID_LENGTH; k += 2) {
+                buf.put((byte) Integer.parseInt(id.substring(k, k + 2), 16));
+            }
+            buf.put(e.getValue());
+            buf.putLong(offsets[i]);
+            buf.putLong(sizes[i]);
+            i += 1;
+        }
+        int bloom = buf.position();
+        buf.putInt(bloomBits);
+        for (String key : kinds.keySet()) {
+            for (int bit : bloomBits(id(key), bloomBits)) {
+                int at = bloom + 4 + bit / 8;
+                buf.put(at, (byte) (buf.get(at) | (1 << (bit % 8))));
+            }
+        }
+        File tmp = join(packFolder, idxFile.getName() + ".tmp");
+        writeContents(tmp, buf.array());
+        moveInto(tmp, idxFile);
+    }
+
+    /**
+     * Atomically rename FROM to TO.
+     */
+    private static void moveInto(File from, File to) {
+        try {
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Binary search for the first record of kind KIND whose id
+     * starts with HASH.
+     *
+     * @return its position or -1 if there is none.
+     */
+    private int search(byte kind, String hash) {
+        if (hash.length() == UID_LENGTH && !mightContain(hash)) {
+            return -1;
+        }
+        int lo = lowerBound(hash);
+        for (int i = lo; i < _count && compare(i, hash) == 0; i += 1) {
+            if (kind(i) == kind) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the first record whose id is not below the hexadecimal
+     * prefix HASH, found through the fan-out table and binary search.
+     */
+    private int lowerBound(String hash) {
+        int lo = 0;
+        int hi = _count;
+        if (hash.length() >= 2) {
+            int b = Integer.parseInt(hash.substring(0, 2), 16);
+            lo = b == 0 ? 0 : _index.getInt(HEADER_SIZE + (b - 1) * 4);
+            hi = _index.getInt(HEADER_SIZE + b * 4);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, hash) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Return false if the Bloom filter shows that the object HASH
+     * is not in this pack, true if it may be.
+     */
+    private boolean mightContain(String hash) {
+        if (_bloomBits == 0) {
+            return true;
+        }
+        for (int bit : bloomBits(hash, _bloomBits)) {
+            if ((_index.get(_bloom + 4 + bit / 8) & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the bits of a Bloom filter of NBITS bits set for HASH.
+     * Ids are SHA-1 hashes, so two of their words are already
+     * independent hashes, combined by double hashing.
+     */
+    private static int[] bloomBits(String hash, int nBits) {
+        int h1 = (int) Long.parseLong(hash.substring(0, 8), 16);
+        int h2 = (int) Long.parseLong(hash.substring(8, 16), 16) | 1;
+        int[] res = new int[BLOOM_HASHES];
+        for (int i = 0; i < BLOOM_HASHES; i += 1) {
+            res[i] = Math.floorMod(h1 + i * h2, nBits);
+        }
+        return res;
+    }
+
+    /**
+     * Compare the id of record I with the hexadecimal prefix HASH,
+     * looking only at as many digits as HASH has.
+     */
+    private int compare(int i, String hash) {
+        int base = RECORDS + i * RECORD_SIZE;
+        for (int k = 0; k < hash.length(); k += 1) {
+            int b = _index.get(base + k / 2) & 0xff;
+            int digit = (k % 2 == 0) ? b >>> 4 : b & 0xf;
+            int want = Character.digit(hash.charAt(k), 16);
+            if (digit != want) {
+                return digit - want;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Return the id of record I.
+     */
+    private String id(int i) {
+        byte[] id = new byte[UID_LENGTH / 2];
+        for (int k = 0; k < id.length; k += 1) {
+            id[k] = _index.get(RECORDS + i * RECORD_SIZE + k);
+        }
+        return toHex(id);
+    }
+
+    /**
+     * Return the kind of record I.
+     */
+    private byte kind(int i) {
+        return _index.get(RECORDS + i * RECORD_SIZE + UID_LENGTH / 2);
+    }
+
+    /**
+     * Return the object of record I.
+     */
+    private RawObject object(int i) {
+        int base = RECORDS + i * RECORD_SIZE + UID_LENGTH / 2 + 1;
+        return new RawObject(_packFile, _index.getLong(base),
+                _index.getLong(base + 8));
+    }
+
+    /**
+     * Packs in packFolder. NULL until first needed.
+     */
+    private static List<Pack> packs;
+
+    /**
+     * The pack file.
+     */
+    private final File _packFile;
+
+    /**
+     * Its index file.
+     */
+    private final File _idxFile;
+
+    /**
+     * The memory-mapped index.
+     */
+    private final MappedByteBuffer _index;
+
+    /**
+     * Number of objects in the pack.
+     */
+    private final int _count;
+
+    /**
+     * Position of the Bloom filter in the index.
+     */
+    private final int _bloom;
+
+    /**
+     * Size of the Bloom filter in bits. 0 if the index has none.
+     */
+    private final int _bloomBits;
+}
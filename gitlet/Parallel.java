@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Runs independent tasks, such as hashing or saving files, on a
+ * bounded pool of threads.
+ * <p>
+ * Work that mostly computes, such as hashing, uses at most THREADS
+ * threads, set with -Dgitlet.threads.  Work that mostly waits on
+ * the disk, such as writing working files, uses at most IO_THREADS,
+ * set with -Dgitlet.ioThreads.  Either runs everything on the
+ * calling thread when set to 1.  All tasks run to the end even if
+ * some fail, and the error reported is that of the first failed
+ * task in order, so that it does not depend on how the tasks were
+ * scheduled.
+ *
+ * @author Ang Wang
+ */
+class Parallel {
+
+    /**
+     * Default bound of each pool doing computation.
+     */
+    static final int THREADS = Math.max(1, Integer.getInteger(
+            "gitlet.threads", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Default bound of each pool doing I/O.
+     */
+    static final int IO_THREADS = Math.max(1, Integer.getInteger(
+            "gitlet.ioThreads", Math.max(THREADS, 16)));
+
+    /**
+     * Return the results of TASK on each of ITEMS, in order, running
+     * on at most THREADS threads at once.
+     *
+     * @param items   the items to work on
+     * @param task    the work to do on each item
+     * @param threads the most tasks to run at once
+     * @param <T>     the type of items
+     * @param <R>     the type of results
+     */
+    static <T, R> List<R> map(List<T> items,
+                              Function<? super T, ? extends R> task,
+                              int threads) {
+        List<R> res = new ArrayList<>(items.size());
+        if (threads <= 1 || items.size() <= 1) {
+            for (T item : items) {
+                res.add(task.apply(item));
+            }
+            return res;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(threads, items.size()), r -> {
+                    Thread t = new Thread(r, "gitlet-worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+        try {
+            List<Future<? extends R>> futures = new ArrayList<>();
+            for (T item : items) {
+                futures.add(pool.submit(() -> task.apply(item)));
+            }
+            Throwable first = null;
+            for (Future<? extends R> f : futures) {
+                try {
+                    res.add(f.get());
+                } catch (ExecutionException excp) {
+                    if (first == null) {
+                        first = excp.getCause();
+                    }
+                    res.add(null);
+                }
+            }
+            if (first instanceof RuntimeException) {
+                throw (RuntimeException) first;
+            } else if (first instanceof Error) {
+                throw (Error) first;
+            } else if (first != null) {
+                throw new IllegalArgumentException(first.getMessage());
+            }
+            return res;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
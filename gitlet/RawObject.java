@@ -0,0 +1,542 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * An object as it is stored on disk.
+ * <p>
+ * Format:
+ * 'G' 'L' 'T' VERSION TYPE ENCODING LENGTH(8 bytes, big-endian)
+ * followed by the content, either deflated or stored as is.
+ * LENGTH is the length of the content before compression.
+ * Objects without that header, such as commits and blobs written by
+ * earlier versions, are read as stored content.
+ * <p>
+ * Object files are written to a temporary file ending in TMP_SUFFIX
+ * in the same folder, then moved into place at once, so an object
+ * cut short by a crash or a full disk is never taken for a saved
+ * one.
+ *
+ * @author Ang Wang
+ */
+class RawObject {
+
+    /**
+     * Magic bytes opening every object.
+     */
+    private static final byte[] MAGIC = {'G', 'L', 'T'};
+
+    /**
+     * Current format version.
+     */
+    static final byte VERSION = 1;
+
+    /**
+     * End of the names of object files being written.
+     */
+    static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Size of the header in bytes.
+     */
+    static final int HEADER_SIZE = 14;
+
+    /**
+     * Type of an object holding a file's content.
+     */
+    static final byte BLOB = 1;
+
+    /**
+     * Type of an object holding a delta against another blob.
+     */
+    static final byte DELTA = 2;
+
+    /**
+     * Type of an object listing the chunks of a large file.
+     */
+    static final byte CHUNKED = 3;
+
+    /**
+     * Type of an object listing the files of a directory.
+     */
+    static final byte TREE = 4;
+
+    /**
+     * Type of an object holding a commit.
+     */
+    static final byte COMMIT = 5;
+
+    /**
+     * Encoding of content stored as is.
+     */
+    static final byte STORED = 0;
+
+    /**
+     * Encoding of deflate-compressed content.
+     */
+    static final byte DEFLATED = 1;
+
+    /**
+     * Content whose first BUFFER_SIZE bytes deflate to more than
+     * this fraction of their size is stored as is.
+     */
+    private static final double MIN_SAVING = 0.9;
+
+    /**
+     * The object stored in the whole of FILE.
+     *
+     * @param file a loose object file
+     */
+    RawObject(File file) {
+        this(file, 0, file.length());
+    }
+
+    /**
+     * The object stored in SIZE bytes of FILE starting at OFFSET.
+     *
+     * @param file   the file holding the object
+     * @param offset position of the object's first byte
+     * @param size   number of bytes the object occupies
+     */
+    RawObject(File file, long offset, long size) {
+        _file = file;
+        _offset = offset;
+        _size = size;
+    }
+
+    /**
+     * Return the object's type.
+     */
+    byte type() {
+        readHeader();
+        return _type;
+    }
+
+    /**
+     * Return the length of the object's content.
+     */
+    long length() {
+        readHeader();
+        return _length;
+    }
+
+    /**
+     * Return the object's encoding.
+     */
+    byte encoding() {
+        readHeader();
+        return _encoding;
+    }
+
+    /**
+     * Return whether the object is a serialized Java object,
+     * as written by earlier versions.
+     */
+    boolean serialized() {
+        readHeader();
+        return _serialized;
+    }
+
+    /**
+     * Return the number of bytes the object occupies on disk.
+     */
+    long size() {
+        return _size;
+    }
+
+    /**
+     * Open a stream over the object's content.
+     * The caller has to close it.
+     */
+    InputStream open() {
+        readHeader();
+        try {
+            FileChannel channel = FileChannel.open(_file.toPath(),
+                    StandardOpenOption.READ);
+            channel.position(_offset + _headerSize);
+            InputStream in = new BufferedInputStream(
+                    Channels.newInputStream(channel), BUFFER_SIZE);
+            if (_encoding == DEFLATED) {
+                return new InflaterInputStream(in, new Inflater(),
+                        BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inf.end();
+                    }
+                };
+            }
+            return in;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the object's whole content.
+     */
+    byte[] read() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copyTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Stream the object's content to OUT, which is left open.
+     *
+     * @param out the stream to write to
+     */
+    void copyTo(OutputStream out) {
+        try (InputStream in = open()) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long left = length();
+            while (left > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+                if (n == -1) {
+                    throw error("Object %s is truncated.", _file);
+                }
+                out.write(buf, 0, n);
+                left -= n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Transfer the object's content to OUT without copying it through
+     * the heap, if it is stored as is.
+     *
+     * @param out the channel to write to
+     * @return false if the content is compressed and nothing was done
+     */
+    boolean transferTo(FileChannel out) {
+        readHeader();
+        if (_encoding != STORED || _serialized) {
+            return false;
+        }
+        transfer(_offset + _headerSize, _length, out);
+        return true;
+    }
+
+    /**
+     * Copy the object as it is stored, header included, to DEST,
+     * without copying it through the heap.
+     *
+     * @param dest the file to write to
+     */
+    void copyRawTo(File dest) {
+        File tmp = tempFile(dest);
+        try (FileChannel out = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfer(_offset, _size, out);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        moveInto(tmp, dest);
+    }
+
+    /**
+     * Transfer LENGTH bytes of _file starting at POSITION to OUT.
+     */
+    private void transfer(long position, long length, FileChannel out) {
+        try (FileChannel in = FileChannel.open(_file.toPath(),
+                StandardOpenOption.READ)) {
+            transferContents(in, position, length, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copy the object as it is stored, header included, to OUT,
+     * which is left open.
+     *
+     * @param out the stream to write to
+     */
+    void copyRawTo(OutputStream out) {
+        try (FileChannel in = FileChannel.open(_file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            long pos = _offset;
+            long end = _offset + _size;
+            while (pos < end) {
+                buf.clear();
+                buf.limit((int) Math.min(BUFFER_SIZE, end - pos));
+                int n = in.read(buf, pos);
+                if (n == -1) {
+                    throw error("Object %s is truncated.", _file);
+                }
+                out.write(buf.array(), 0, n);
+                pos += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the contents of SOURCE to DEST as an object of type TYPE,
+     * streaming it BUFFER_SIZE bytes at a time.  Content that does not
+     * compress is stored as is.
+     *
+     * @param dest   the object file to write
+     * @param type   the object's type
+     * @param source the file holding the content
+     */
+    static void write(File dest, byte type, File source) {
+        long length = source.length();
+        boolean deflate = compressible(source);
+        File tmp = tempFile(dest);
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), BUFFER_SIZE)) {
+            out.write(header(type, deflate ? DEFLATED : STORED, length));
+            if (deflate) {
+                Deflater deflater = new Deflater();
+                try {
+                    DeflaterOutputStream z = new DeflaterOutputStream(out,
+                            deflater, BUFFER_SIZE);
+                    copyContents(source, z);
+                    z.finish();
+                } finally {
+                    deflater.end();
+                }
+            } else {
+                copyContents(source, out);
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        moveInto(tmp, dest);
+    }
+
+    /**
+     * Write CONTENT to DEST as a deflated object of type TYPE.
+     *
+     * @param dest    the object file to write
+     * @param type    the object's type
+     * @param content the object's content
+     */
+    static void write(File dest, byte type, byte[] content) {
+        writeFile(dest, encode(type, content));
+    }
+
+    /**
+     * Write BYTES, an encoded object, to the object file DEST.
+     *
+     * @param dest  the object file to write
+     * @param bytes the object as stored
+     */
+    static void writeFile(File dest, byte[] bytes) {
+        File tmp = tempFile(dest);
+        try {
+            writeContents(tmp, bytes);
+        } catch (IllegalArgumentException excp) {
+            tmp.delete();
+            throw excp;
+        }
+        moveInto(tmp, dest);
+    }
+
+    /**
+     * Return a new, empty temporary file in the folder of the object
+     * file DEST, for writing it.
+     */
+    private static File tempFile(File dest) {
+        try {
+            return Files.createTempFile(dest.getParentFile().toPath(),
+                    dest.getName() + ".", TMP_SUFFIX).toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Move the fully written TMP to DEST at once.
+     */
+    private static void moveInto(File tmp, File dest) {
+        try {
+            Files.move(tmp.toPath(), dest.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return CONTENT encoded as a deflated object of type TYPE.
+     *
+     * @param type    the object's type
+     * @param content the object's content
+     */
+    static byte[] encode(byte type, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+        try {
+            out.write(header(type, DEFLATED, content.length));
+            DeflaterOutputStream z = new DeflaterOutputStream(out, deflater);
+            z.write(content);
+            z.finish();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the header of an object.
+     *
+     * @param type     the object's type
+     * @param encoding the encoding of its content
+     * @param length   the length of its content
+     */
+    private static byte[] header(byte type, byte encoding, long length) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.put(MAGIC).put(VERSION).put(type).put(encoding).putLong(length);
+        return buf.array();
+    }
+
+    /**
+     * Return whether the beginning of SOURCE shrinks enough
+     * under deflate to be worth compressing.
+     *
+     * @param source the file to sample
+     */
+    private static boolean compressible(File source) {
+        byte[] sample = new byte[BUFFER_SIZE];
+        int n = 0;
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            int r;
+            while (n < sample.length
+                    && (r = in.read(sample, n, sample.length - n)) != -1) {
+                n += r;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample, 0, n);
+            deflater.finish();
+            byte[] out = new byte[n + 64];
+            int compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(out);
+            }
+            return compressed < n * MIN_SAVING;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Read the header if not read yet.
+     */
+    private void readHeader() {
+        if (_headerRead) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel in = FileChannel.open(_file.toPath(),
+                StandardOpenOption.READ)) {
+            while (buf.hasRemaining()
+                    && in.read(buf, _offset + buf.position()) > 0) {
+                continue;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        buf.flip();
+        if (buf.remaining() == HEADER_SIZE && buf.get(0) == MAGIC[0]
+                && buf.get(1) == MAGIC[1] && buf.get(2) == MAGIC[2]) {
+            buf.position(MAGIC.length);
+            byte version = buf.get();
+            if (version > VERSION) {
+                throw error("Object %s has unknown version %d.",
+                        _file, version);
+            }
+            _type = buf.get();
+            _encoding = buf.get();
+            _length = buf.getLong();
+            _headerSize = HEADER_SIZE;
+        } else {
+            _serialized = buf.remaining() >= 2
+                    && buf.get(0) == (byte) 0xac && buf.get(1) == (byte) 0xed;
+            _type = BLOB;
+            _encoding = STORED;
+            _length = _size;
+            _headerSize = 0;
+        }
+        _headerRead = true;
+    }
+
+    /**
+     * The file holding the object.
+     */
+    private final File _file;
+
+    /**
+     * Position of the object in _file.
+     */
+    private final long _offset;
+
+    /**
+     * Bytes the object occupies in _file.
+     */
+    private final long _size;
+
+    /**
+     * True once the header has been read.
+     */
+    private boolean _headerRead;
+
+    /**
+     * True if the object is a serialized Java object.
+     */
+    private boolean _serialized;
+
+    /**
+     * Number of header bytes before the content.
+     */
+    private int _headerSize;
+
+    /**
+     * The object's type.
+     */
+    private byte _type;
+
+    /**
+     * The encoding of its content.
+     */
+    private byte _encoding;
+
+    /**
+     * Length of its content.
+     */
+    private long _length;
+}
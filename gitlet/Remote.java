@@ -76,11 +76,20 @@ public class Remote {
         if (!f.exists()) {
             return false;
         }
+        StatCache.setUpCache(f);
         setCwd(f.getParentFile());
         setMainFolder(f);
         setUpCommits(f);
         setUpBLobs(f);
+        Tree.setUpTrees(f);
         setUpStages(f);
+        Pack.setUpPacks(f);
+        CommitGraph.setUpGraph(f);
+        MessageIndex.setUpIndex(f);
+        CommitCatalog.setUpCatalog(f);
+        Commit.getCache().clear();
+        Blob.getCache().clear();
+        Tree.getCache().clear();
         return true;
     }
 
@@ -88,11 +97,20 @@ public class Remote {
      * Set folder back to local one.
      */
     static void setFolderBack() {
+        StatCache.setUpCache(LOCAL_MAIN_FOLDER);
         setCwd(LOCAL_CWD);
         setMainFolder(LOCAL_MAIN_FOLDER);
         setUpCommits(LOCAL_MAIN_FOLDER);
         setUpBLobs(LOCAL_MAIN_FOLDER);
+        Tree.setUpTrees(LOCAL_MAIN_FOLDER);
         setUpStages(LOCAL_MAIN_FOLDER);
+        Pack.setUpPacks(LOCAL_MAIN_FOLDER);
+        CommitGraph.setUpGraph(LOCAL_MAIN_FOLDER);
+        MessageIndex.setUpIndex(LOCAL_MAIN_FOLDER);
+        CommitCatalog.setUpCatalog(LOCAL_MAIN_FOLDER);
+        Commit.getCache().clear();
+        Blob.getCache().clear();
+        Tree.getCache().clear();
     }
 
 }
@@ -0,0 +1,296 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+import static gitlet.Main.*;
+
+/**
+ * The last known hash of each working file, with the size,
+ * modification time and inode it had then, so that a file whose
+ * stat data has not changed is not read and hashed again.
+ * <p>
+ * File: "STAT" VERSION, then one record per file, sorted by path:
+ * PATH(UTF) SIZE(8 bytes) MTIME(8 bytes, in ns) INODE(8 bytes)
+ * HASH(20 bytes).
+ * A file changed within the timestamp granularity of the moment
+ * the cache was written could keep its stat data, so entries whose
+ * modification time is not older than the cache file are hashed
+ * again anyway.  The cache is rebuilt as files are hashed when it
+ * is missing or unreadable.
+ *
+ * @author Ang Wang
+ */
+class StatCache {
+
+    /**
+     * Magic number opening the file, "STAT".
+     */
+    private static final int MAGIC = 0x53544154;
+
+    /**
+     * Current format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * File storing the cache.
+     */
+    private static File cacheFile = join(getMainFolder(), "stat-cache");
+
+    /**
+     * Set current working directory to REMOTE, saving the cache of
+     * the previous one first.
+     *
+     * @param remote .../.gitlet
+     * */
+    static void setUpCache(File remote) {
+        save();
+        cacheFile = join(remote, "stat-cache");
+        entries = null;
+    }
+
+    /**
+     * Return the hash of the working file FILENAME, or null if it
+     * does not exist.  The file is only read if its stat data
+     * changed since it was last hashed.  Several files may be
+     * hashed at once from different threads.
+     *
+     * @param fileName a file's path in the working directory
+     */
+    static String hash(String fileName) {
+        File file = join(getCwd(), fileName);
+        Entry stat = stat(file.toPath());
+        synchronized (StatCache.class) {
+            load();
+            if (stat == null) {
+                if (entries.remove(fileName) != null) {
+                    dirty = true;
+                }
+                return null;
+            }
+            Entry known = entries.get(fileName);
+            if (known != null && known.sameStat(stat)
+                    && known._mtime < written) {
+                return known._hash;
+            }
+        }
+        stat._hash = sha1(file);
+        synchronized (StatCache.class) {
+            entries.put(fileName, stat);
+            dirty = true;
+        }
+        return stat._hash;
+    }
+
+    /**
+     * Record HASH as the hash of the working file FILENAME, which
+     * was just written with that content.
+     *
+     * @param fileName a file's path in the working directory
+     * @param hash     the hash of its content
+     */
+    static void record(String fileName, String hash) {
+        Entry stat = stat(join(getCwd(), fileName).toPath());
+        if (stat == null) {
+            return;
+        }
+        stat._hash = hash;
+        synchronized (StatCache.class) {
+            load();
+            entries.put(fileName, stat);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Write the cache if it changed, replacing the file at once.
+     */
+    static synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        tmp.toPath()), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry._size);
+                out.writeLong(entry._mtime);
+                out.writeLong(entry._inode);
+                for (int k = 0; k < UID_LENGTH; k += 2) {
+                    out.writeByte(Integer.parseInt(
+                            entry._hash.substring(k, k + 2), 16));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), cacheFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+    }
+
+    /**
+     * Read the cache file if not read yet.
+     */
+    private static void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new TreeMap<>();
+        written = Long.MIN_VALUE;
+        if (!cacheFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(
+                        cacheFile.toPath()), BUFFER_SIZE))) {
+            written = Files.getLastModifiedTime(cacheFile.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+            if (in.readInt() != MAGIC || in.readInt() > VERSION) {
+                entries.clear();
+                return;
+            }
+            byte[] id = new byte[UID_LENGTH / 2];
+            while (true) {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong(),
+                        in.readLong());
+                in.readFully(id);
+                entry._hash = toHex(id);
+                entries.put(path, entry);
+            }
+        } catch (EOFException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the stat data of the regular file at PATH, without a
+     * hash, or null if there is no such file.
+     */
+    private static Entry stat(Path path) {
+        try {
+            Map<String, Object> unix = Files.readAttributes(path,
+                    "unix:size,lastModifiedTime,ino,isRegularFile");
+            if (!(Boolean) unix.get("isRegularFile")) {
+                return null;
+            }
+            return new Entry((Long) unix.get("size"),
+                    ((FileTime) unix.get("lastModifiedTime"))
+                            .to(TimeUnit.NANOSECONDS),
+                    (Long) unix.get("ino"));
+        } catch (UnsupportedOperationException excp) {
+            return basicStat(path);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the stat data of the regular file at PATH where inodes
+     * are not available, or null if there is no such file.
+     */
+    private static Entry basicStat(Path path) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path,
+                    BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            return new Entry(attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * What the cache knows of a file.
+     */
+    private static class Entry {
+
+        /**
+         * Stat data SIZE, MTIME and INODE.
+         */
+        Entry(long size, long mtime, long inode) {
+            _size = size;
+            _mtime = mtime;
+            _inode = inode;
+        }
+
+        /**
+         * Return whether OTHER has the same stat data.
+         */
+        boolean sameStat(Entry other) {
+            return _size == other._size && _mtime == other._mtime
+                    && _inode == other._inode;
+        }
+
+        /**
+         * Size in bytes.
+         */
+        private final long _size;
+
+        /**
+         * Modification time, in ns since the epoch.
+         */
+        private final long _mtime;
+
+        /**
+         * Inode number, or 0 where there is none.
+         */
+        private final long _inode;
+
+        /**
+         * Hash of the content.
+         */
+        private String _hash;
+    }
+
+    /**
+     * Entries by path. NULL until loaded.
+     */
+    private static TreeMap<String, Entry> entries;
+
+    /**
+     * Modification time of the cache file when loaded, in ns.
+     */
+    private static long written;
+
+    /**
+     * Whether entries changed since loaded.
+     */
+    private static boolean dirty;
+}
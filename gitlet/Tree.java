@@ -0,0 +1,433 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+import static gitlet.Main.*;
+
+/**
+ * A directory as tracked by a commit: the blobs of its files and
+ * the trees of its subdirectories.
+ * <p>
+ * Trees are saved as objects of type TREE, so a directory that did
+ * not change is shared by every commit that tracks it, and a change
+ * only writes the trees on its path.
+ * Format, sorted by name:
+ * KIND('f' or 'd') NAMELENGTH(2 bytes) NAME(UTF-8) ID(20 bytes).
+ * A tree's hash is the SHA of "tree" followed by its content, which
+ * a file's content can match, so trees are kept apart from blobs:
+ * loose in their own folder, and in packs as objects of kind TREE.
+ * Trees saved with the blobs by earlier versions are still read.
+ *
+ * @author Ang Wang
+ */
+class Tree {
+
+    /**
+     * Kind of a file entry.
+     */
+    private static final byte FILE = 'f';
+
+    /**
+     * Kind of a subdirectory entry.
+     */
+    private static final byte DIR = 'd';
+
+    /**
+     * Separator of directories in a path.
+     */
+    static final String SEPARATOR = "/";
+
+    /**
+     * Estimated size of a tree read from disk, besides its entries.
+     */
+    private static final int OBJECT_WEIGHT = 128;
+
+    /**
+     * Recently read trees.
+     */
+    private static final ObjectCache<Tree> CACHE =
+            new ObjectCache<>("tree", ObjectCache.CAPACITY);
+
+    /**
+     * Directory for storing trees.
+     */
+    private static File treeFolder = join(getMainFolder(), "trees");
+
+    /**
+     * Get treeFolder.
+     *
+     * @return treeFolder
+     */
+    static File getTreeFolder() {
+        return treeFolder;
+    }
+
+    /**
+     * Set current working directory to REMOTE.
+     *
+     * @param remote .../.gitlet
+     * */
+    static void setUpTrees(File remote) {
+        treeFolder = join(remote, "trees");
+    }
+
+    /**
+     * A tree with FILES and DIRS.
+     *
+     * @param files blob of each file
+     * @param dirs  tree of each subdirectory
+     */
+    private Tree(TreeMap<String, String> files, TreeMap<String, String> dirs) {
+        _files = files;
+        _dirs = dirs;
+    }
+
+    /**
+     * Return the hash of the tree ROOT with CHANGES applied,
+     * saving the trees that change.  Subtrees no change falls
+     * into are kept as they are.
+     *
+     * @param root    hash of a tree, or null for an empty one
+     * @param changes new blob of each changed path, null if removed
+     */
+    static String update(String root, Map<String, String> changes) {
+        return apply(root, changes).save();
+    }
+
+    /**
+     * Return the tree ROOT with CHANGES applied, unsaved, saving the
+     * subtrees that change.  Subtrees left empty are dropped without
+     * being saved.
+     *
+     * @param root    hash of a tree, or null for an empty one
+     * @param changes new blob of each changed path, null if removed
+     */
+    private static Tree apply(String root, Map<String, String> changes) {
+        Tree tree = root == null ? new Tree(new TreeMap<>(), new TreeMap<>())
+                : read(root);
+        TreeMap<String, String> files = new TreeMap<>(tree._files);
+        TreeMap<String, String> dirs = new TreeMap<>(tree._dirs);
+        HashMap<String, Map<String, String>> inDirs = new HashMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash == -1) {
+                if (e.getValue() == null) {
+                    files.remove(path);
+                } else {
+                    files.put(path, e.getValue());
+                }
+            } else {
+                inDirs.computeIfAbsent(path.substring(0, slash),
+                        k -> new HashMap<>())
+                        .put(path.substring(slash + 1), e.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> e : inDirs.entrySet()) {
+            Tree sub = apply(dirs.get(e.getKey()), e.getValue());
+            if (sub.empty()) {
+                dirs.remove(e.getKey());
+            } else {
+                dirs.put(e.getKey(), sub.save());
+            }
+        }
+        return new Tree(files, dirs);
+    }
+
+    /**
+     * Return the blob of the file at PATH under the tree ROOT, or
+     * null if there is none.  Only the trees on the way are read.
+     *
+     * @param root hash of a tree
+     * @param path a file's path
+     */
+    static String get(String root, String path) {
+        Tree tree = read(root);
+        int slash;
+        while ((slash = path.indexOf(SEPARATOR)) != -1) {
+            String sub = tree._dirs.get(path.substring(0, slash));
+            if (sub == null) {
+                return null;
+            }
+            tree = read(sub);
+            path = path.substring(slash + 1);
+        }
+        return tree._files.get(path);
+    }
+
+    /**
+     * Return the blob of every file under the tree ROOT,
+     * by path.
+     *
+     * @param root hash of a tree
+     */
+    static HashMap<String, String> flatten(String root) {
+        HashMap<String, String> res = new HashMap<>();
+        flatten(root, "", res);
+        return res;
+    }
+
+    /**
+     * Put the blob of every file under the tree ROOT in RES,
+     * with PREFIX before its path.
+     */
+    private static void flatten(String root, String prefix,
+                                Map<String, String> res) {
+        Tree tree = read(root);
+        for (Map.Entry<String, String> e : tree._files.entrySet()) {
+            res.put(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : tree._dirs.entrySet()) {
+            flatten(e.getValue(), prefix + e.getKey() + SEPARATOR, res);
+        }
+    }
+
+    /**
+     * Return the paths whose blobs differ between the trees FROM
+     * and TO, mapped to {blob in FROM, blob in TO}, where null
+     * stands for a missing file.  Subtrees with the same hash on
+     * both sides are skipped without being read.
+     *
+     * @param from hash of a tree
+     * @param to   hash of another tree
+     */
+    static TreeMap<String, String[]> diff(String from, String to) {
+        TreeMap<String, String[]> res = new TreeMap<>();
+        diff(from, to, "", res);
+        return res;
+    }
+
+    /**
+     * Put the differences between the trees FROM and TO, either of
+     * which may be null, in RES, with PREFIX before their paths.
+     */
+    private static void diff(String from, String to, String prefix,
+                             Map<String, String[]> res) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        Tree a = from == null ? null : read(from);
+        Tree b = to == null ? null : read(to);
+        Set<String> names = new HashSet<>();
+        if (a != null) {
+            names.addAll(a._files.keySet());
+        }
+        if (b != null) {
+            names.addAll(b._files.keySet());
+        }
+        for (String name : names) {
+            String x = a == null ? null : a._files.get(name);
+            String y = b == null ? null : b._files.get(name);
+            if (x == null || !x.equals(y)) {
+                res.put(prefix + name, new String[] {x, y});
+            }
+        }
+        names.clear();
+        if (a != null) {
+            names.addAll(a._dirs.keySet());
+        }
+        if (b != null) {
+            names.addAll(b._dirs.keySet());
+        }
+        for (String name : names) {
+            diff(a == null ? null : a._dirs.get(name),
+                    b == null ? null : b._dirs.get(name),
+                    prefix + name + SEPARATOR, res);
+        }
+    }
+
+    /**
+     * Put the tree ROOT and all trees under it in RES, as they are
+     * stored, by hash.  Trees already in RES are not read again.
+     *
+     * @param root hash of a tree
+     * @param res  stored trees found so far
+     */
+    static void objects(String root, Map<String, RawObject> res) {
+        if (res.containsKey(root)) {
+            return;
+        }
+        res.put(root, object(root));
+        for (String sub : read(root)._dirs.values()) {
+            objects(sub, res);
+        }
+    }
+
+    /**
+     * Save OBJECT, the tree HASH as stored in another repository,
+     * unless it is already saved.
+     *
+     * @param hash   the tree's hash
+     * @param object the tree as stored
+     */
+    static void copy(String hash, RawObject object) {
+        if (!contains(hash)) {
+            object.copyRawTo(objectFile(hash));
+        }
+    }
+
+    /**
+     * Return whether the tree HASH is in treeFolder or in a pack.
+     *
+     * @param hash the tree's hash
+     */
+    static boolean contains(String hash) {
+        return join(treeFolder, hash.substring(0, 2), hash.substring(2))
+                .exists() || Pack.contains(Pack.TREE, hash);
+    }
+
+    /**
+     * Return the tree HASH as stored, in treeFolder, in a pack, or
+     * with the blobs where earlier versions saved it.
+     *
+     * @param hash the tree's hash
+     */
+    private static RawObject object(String hash) {
+        File file = join(treeFolder, hash.substring(0, 2),
+                hash.substring(2));
+        if (file.exists()) {
+            return new RawObject(file);
+        }
+        RawObject res = Pack.find(Pack.TREE, hash);
+        if (res == null) {
+            res = Blob.findObject(hash);
+        }
+        if (res == null || res.type() != RawObject.TREE) {
+            throw error("Missing tree %s.", hash);
+        }
+        return res;
+    }
+
+    /**
+     * Return the file in treeFolder for the tree HASH, creating its
+     * folder if needed.
+     *
+     * @param hash the tree's hash
+     */
+    private static File objectFile(String hash) {
+        File folder = join(treeFolder, hash.substring(0, 2));
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        return join(folder, hash.substring(2));
+    }
+
+    /**
+     * Return the tree HASH, through the cache of recently read trees.
+     *
+     * @param hash the tree's hash
+     */
+    static Tree read(String hash) {
+        Tree tree = CACHE.get(hash);
+        if (tree == null) {
+            tree = decode(object(hash).read());
+            CACHE.put(hash, tree, tree.weight());
+        }
+        return tree;
+    }
+
+    /**
+     * Return the cache of recently read trees.
+     */
+    static ObjectCache<Tree> getCache() {
+        return CACHE;
+    }
+
+    /**
+     * Return whether the tree has no entries.
+     */
+    boolean empty() {
+        return _files.isEmpty() && _dirs.isEmpty();
+    }
+
+    /**
+     * Save the tree unless it is already saved, and return its hash.
+     */
+    private String save() {
+        byte[] content = encode();
+        String hash = sha1("tree", content);
+        if (!contains(hash)) {
+            RawObject.write(objectFile(hash), RawObject.TREE, content);
+        }
+        CACHE.put(hash, this, weight());
+        return hash;
+    }
+
+    /**
+     * Return the tree's content.
+     */
+    private byte[] encode() {
+        TreeMap<String, byte[]> entries = new TreeMap<>();
+        for (Map.Entry<String, String> e : _files.entrySet()) {
+            entries.put(e.getKey(), entry(FILE, e.getKey(), e.getValue()));
+        }
+        for (Map.Entry<String, String> e : _dirs.entrySet()) {
+            entries.put(e.getKey() + SEPARATOR,
+                    entry(DIR, e.getKey(), e.getValue()));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] entry : entries.values()) {
+            out.write(entry, 0, entry.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the entry of kind KIND for NAME with id ID.
+     */
+    private static byte[] entry(byte kind, String name, String id) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(3 + bytes.length
+                + UID_LENGTH / 2);
+        buf.put(kind).putShort((short) bytes.length).put(bytes);
+        for (int k = 0; k < UID_LENGTH; k += 2) {
+            buf.put((byte) Integer.parseInt(id.substring(k, k + 2), 16));
+        }
+        return buf.array();
+    }
+
+    /**
+     * Return the tree whose content is CONTENT.
+     */
+    private static Tree decode(byte[] content) {
+        TreeMap<String, String> files = new TreeMap<>();
+        TreeMap<String, String> dirs = new TreeMap<>();
+        ByteBuffer buf = ByteBuffer.wrap(content);
+        byte[] id = new byte[UID_LENGTH / 2];
+        while (buf.hasRemaining()) {
+            byte kind = buf.get();
+            byte[] name = new byte[buf.getShort() & 0xffff];
+            buf.get(name).get(id);
+            (kind == DIR ? dirs : files).put(
+                    new String(name, StandardCharsets.UTF_8), toHex(id));
+        }
+        return new Tree(files, dirs);
+    }
+
+    /**
+     * Return an estimate of the memory this tree takes, in bytes.
+     */
+    private long weight() {
+        return OBJECT_WEIGHT
+                + (long) OBJECT_WEIGHT * (_files.size() + _dirs.size());
+    }
+
+    /**
+     * Blob of each file, by name.
+     */
+    private final TreeMap<String, String> _files;
+
+    /**
+     * Tree of each subdirectory, by name.
+     */
+    private final TreeMap<String, String> _dirs;
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -8,14 +9,19 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -24,14 +30,27 @@ import java.util.List;
  */
 class Utils {
 
+    /**
+     * Line opening a conflict.
+     * */
+    static final String CONFLICT_START = "<<<<<<< HEAD"
+            + System.lineSeparator();
+
+    /**
+     * Line separating the two sides of a conflict.
+     * */
+    static final String CONFLICT_MID = "=======" + System.lineSeparator();
+
+    /**
+     * Line closing a conflict.
+     * */
+    static final String CONFLICT_END = ">>>>>>>" + System.lineSeparator();
+
     /**
      * Conflict Format.
      * */
-    static final String CONFLICT = "<<<<<<< HEAD" + System.lineSeparator()
-            + "%s"
-            + "=======" + System.lineSeparator()
-            + "%s"
-            + ">>>>>>>" + System.lineSeparator();
+    static final String CONFLICT = CONFLICT_START + "%s"
+            + CONFLICT_MID + "%s" + CONFLICT_END;
 
     /* SHA-1 HASH VALUES. */
 
@@ -52,16 +71,46 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, read through a
+     *  FileChannel BUFFER_SIZE bytes at a time so that memory use does
+     *  not depend on the size of FILE. */
+    static String sha1(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buf) != -1) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
             }
-            return result.toString();
+            return toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Hexadecimal digits, by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Returns DIGEST as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] digest) {
+        char[] result = new char[2 * digest.length];
+        for (int i = 0; i < digest.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -95,6 +144,9 @@ class Utils {
 
     /* READING AND WRITING FILE CONTENTS */
 
+    /** Size of the buffer used when streaming file contents. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
     /** Return the entire contents of FILE as a byte array.  FILE must
      *  be a normal file.  Throws IllegalArgumentException
      *  in case of problems. */
@@ -141,6 +193,46 @@ class Utils {
         }
     }
 
+    /** Write the contents of FROM to OUT, BUFFER_SIZE bytes at a time,
+     *  without holding the whole file in memory.  OUT is left open.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void copyContents(File from, OutputStream out) {
+        try (FileChannel in = FileChannel.open(from.toPath(),
+                StandardOpenOption.READ)) {
+            WritableByteChannel dest = Channels.newChannel(out);
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buf) != -1) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    dest.write(buf);
+                }
+                buf.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Transfer LENGTH bytes of IN starting at POSITION to OUT with
+     *  FileChannel.transferTo, which lets the operating system copy
+     *  them without passing them through the Java heap.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void transferContents(FileChannel in, long position, long length,
+                                 FileChannel out) {
+        try {
+            long done = 0;
+            while (done < length) {
+                long n = in.transferTo(position + done, length - done, out);
+                if (n <= 0 && position + done >= in.size()) {
+                    throw error("File is truncated.");
+                }
+                done += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -157,6 +249,20 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static gitlet.Utils.*;
+import static gitlet.Main.*;
+
+/**
+ * The files of the working directory, in all its subdirectories,
+ * as paths relative to it separated by Tree.SEPARATOR.
+ * <p>
+ * The working directory is scanned once per command, and the scan
+ * is shared by status, add and checkout.  Each directory is listed
+ * by its own task on a fork-join pool of at most
+ * Parallel.IO_THREADS threads.  .gitlet, and the directories the
+ * patterns of .gitletignore match, are pruned without being listed,
+ * and the files those patterns match are left out.  Symbolic links
+ * to directories are not followed.
+ *
+ * @author Ang Wang
+ */
+class WorkingTree {
+
+    /**
+     * Pool listing directories.
+     */
+    private static final ForkJoinPool POOL =
+            new ForkJoinPool(Parallel.IO_THREADS);
+
+    /**
+     * Return the paths of all files in the working directory, sorted.
+     */
+    static synchronized SortedSet<String> files() {
+        File root = getCwd();
+        if (files == null || !root.equals(scanned)) {
+            ignore = Ignore.load(root);
+            List<String> found = POOL.invoke(new Scan(root.toPath(), ""));
+            files = Collections.unmodifiableSortedSet(new TreeSet<>(found));
+            scanned = root;
+        }
+        return files;
+    }
+
+    /**
+     * Return the paths of the files in the working directory under
+     * DIR, a normalized path relative to it, sorted.  DIR is empty
+     * for all.
+     *
+     * @param dir a directory's path
+     */
+    static SortedSet<String> filesUnder(String dir) {
+        if (dir.isEmpty()) {
+            return files();
+        }
+        String prefix = dir + Tree.SEPARATOR;
+        return files().subSet(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    /**
+     * Return PATH, a path relative to the working directory, without
+     * redundant parts such as "./" and trailing separators, and
+     * separated by Tree.SEPARATOR.  The working directory itself is
+     * the empty path.
+     *
+     * @param path a path as given on the command line
+     */
+    static String normalize(String path) {
+        return new File(path).toPath().normalize().toString()
+                .replace(File.separator, Tree.SEPARATOR);
+    }
+
+    /**
+     * Return whether the file or directory at PATH is left out of
+     * the current scan.
+     *
+     * @param path a path
+     * @param dir  whether PATH is a directory
+     */
+    private static boolean ignored(String path, boolean dir) {
+        return dir && path.equals(".gitlet") || ignore.ignored(path, dir);
+    }
+
+    /**
+     * Delete the working file FILENAME, if it exists, and then the
+     * directories holding it that this leaves empty.
+     *
+     * @param fileName a file's path
+     */
+    static void delete(String fileName) {
+        File file = join(getCwd(), fileName);
+        if (!file.delete()) {
+            return;
+        }
+        int slash = fileName.lastIndexOf(Tree.SEPARATOR);
+        while (slash > 0
+                && join(getCwd(), fileName.substring(0, slash)).delete()) {
+            slash = fileName.lastIndexOf(Tree.SEPARATOR, slash - 1);
+        }
+    }
+
+    /**
+     * Lists one directory, forking a task for each subdirectory.
+     */
+    private static class Scan extends RecursiveTask<List<String>> {
+
+        /**
+         * Pinned, though tasks are never serialized.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * A task listing DIR, whose path in the working directory
+         * is PREFIX.
+         */
+        Scan(Path dir, String prefix) {
+            _dir = dir;
+            _prefix = prefix;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> res = new ArrayList<>();
+            List<Scan> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> entries =
+                         Files.newDirectoryStream(_dir)) {
+                for (Path p : entries) {
+                    String path = _prefix + p.getFileName();
+                    BasicFileAttributes attrs = Files.readAttributes(p,
+                            BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        if (!ignored(path, true)) {
+                            Scan sub = new Scan(p, path + Tree.SEPARATOR);
+                            sub.fork();
+                            subdirs.add(sub);
+                        }
+                    } else if ((attrs.isRegularFile()
+                            || Files.isRegularFile(p))
+                            && !ignored(path, false)) {
+                        res.add(path);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            for (Scan sub : subdirs) {
+                res.addAll(sub.join());
+            }
+            return res;
+        }
+
+        /**
+         * The directory listed.
+         */
+        private final Path _dir;
+
+        /**
+         * Its path in the working directory, ending in a separator,
+         * or empty for the working directory itself.
+         */
+        private final String _prefix;
+    }
+
+    /**
+     * Files found by the last scan. NULL until scanned.
+     */
+    private static SortedSet<String> files;
+
+    /**
+     * The patterns of the last scan's .gitletignore.
+     */
+    private static Ignore ignore;
+
+    /**
+     * The working directory of the last scan.
+     */
+    private static File scanned;
+}